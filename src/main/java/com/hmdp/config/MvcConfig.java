@@ -2,6 +2,8 @@ package com.hmdp.config;
 
 import com.hmdp.utils.LoginInterceptor;
 import com.hmdp.utils.RefreshTokenInterceptor;
+import com.hmdp.utils.SeckillRateLimitInterceptor;
+import com.hmdp.utils.SeckillRateLimiter;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.context.annotation.Configuration;
 import org.springframework.data.redis.core.StringRedisTemplate;
@@ -17,6 +19,8 @@ public class MvcConfig implements WebMvcConfigurer {
 
     @Autowired
     private StringRedisTemplate stringRedisTemplate;
+    @Autowired
+    private SeckillRateLimiter seckillRateLimiter;
     @Override
     public void addInterceptors(InterceptorRegistry registry) {
         registry.addInterceptor(new LoginInterceptor())
@@ -27,9 +31,17 @@ public class MvcConfig implements WebMvcConfigurer {
                     "/shop/**",
                     "/shop-type/**",
                     "/upload/**",
-                    "/voucher/**"
+                    //只放行查询，新增优惠券和补充库存需要登录
+                    "/voucher/list/**",
+                    //只放行健康检查和指标采集，其他actuator端点不通过web暴露
+                    "/actuator/health",
+                    "/actuator/health/**",
+                    "/actuator/prometheus"
                 ).order(1);
         registry.addInterceptor(new RefreshTokenInterceptor(stringRedisTemplate))
                 .addPathPatterns("/**").order(0);
+        //秒杀限流，需要用户信息，放在登录拦截之后
+        registry.addInterceptor(new SeckillRateLimitInterceptor(seckillRateLimiter))
+                .addPathPatterns("/voucher-order/seckill/**").order(2);
     }
 }
@@ -0,0 +1,53 @@
+package com.hmdp.config;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.core.task.SimpleAsyncTaskExecutor;
+import org.springframework.data.redis.connection.RedisConnectionFactory;
+import org.springframework.data.redis.listener.RedisMessageListenerContainer;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
+
+import javax.annotation.PreDestroy;
+import java.util.concurrent.ThreadPoolExecutor;
+
+/**
+ * Redis相关的公共组件配置
+ */
+@Configuration
+public class RedisConfig {
+
+    //处理订阅消息的线程池，不注册为bean，避免替换掉Spring Boot默认的applicationTaskExecutor
+    private final ThreadPoolTaskExecutor listenerExecutor = new ThreadPoolTaskExecutor();
+
+    /**
+     * Redis发布订阅的监听容器，各组件在初始化时向其注册自己关心的频道。
+     * <p>
+     * 默认的SimpleAsyncTaskExecutor每条消息新建一个线程，这里改为固定大小的线程池 + 有界队列，
+     * 队列满时由接收消息的线程自己处理，形成背压而不是丢弃消息(失效通知丢了会读到旧数据)
+     */
+    @Bean
+    public RedisMessageListenerContainer redisMessageListenerContainer(
+            RedisConnectionFactory connectionFactory,
+            @Value("${hmdp.redis.listener.pool-size:4}") int poolSize,
+            @Value("${hmdp.redis.listener.queue-capacity:10000}") int queueCapacity) {
+        listenerExecutor.setCorePoolSize(poolSize);
+        listenerExecutor.setMaxPoolSize(poolSize);
+        listenerExecutor.setQueueCapacity(queueCapacity);
+        listenerExecutor.setThreadNamePrefix("redis-listener-");
+        listenerExecutor.setRejectedExecutionHandler(new ThreadPoolExecutor.CallerRunsPolicy());
+        listenerExecutor.initialize();
+
+        RedisMessageListenerContainer container = new RedisMessageListenerContainer();
+        container.setConnectionFactory(connectionFactory);
+        container.setTaskExecutor(listenerExecutor);
+        //订阅本身只在启动和重连时执行，单独的线程便于在线程栈中区分
+        container.setSubscriptionExecutor(new SimpleAsyncTaskExecutor("redis-subscription-"));
+        return container;
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        listenerExecutor.shutdown();
+    }
+}
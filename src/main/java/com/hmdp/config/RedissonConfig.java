@@ -1,8 +1,10 @@
 package com.hmdp.config;
 
+import cn.hutool.core.util.StrUtil;
 import org.redisson.Redisson;
 import org.redisson.api.RedissonClient;
 import org.redisson.config.Config;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 
@@ -13,14 +15,28 @@ import org.springframework.context.annotation.Configuration;
 @Configuration
 public class RedissonConfig {
 
+    //与spring.redis使用同一个Redis，测试环境中可以整体替换
+    @Value("${spring.redis.host}")
+    private String host;
+
+    @Value("${spring.redis.port:6379}")
+    private int port;
+
+    @Value("${spring.redis.password:}")
+    private String password;
+
+    @Value("${spring.redis.database:0}")
+    private int database;
+
     @Bean
     public RedissonClient redissonClient() {
         //配置类
         Config config = new Config();
         //添加redis地址，这里添加的是单点地址，也可以使用config.useClusterServers()添加集群地址
         config.useSingleServer()
-                .setAddress("redis://192.168.186.128:6379")
-                .setPassword("123456");
+                .setAddress("redis://" + host + ":" + port)
+                .setPassword(StrUtil.isBlank(password) ? null : password)
+                .setDatabase(database);
         //创建客户端
         return Redisson.create(config);
     }
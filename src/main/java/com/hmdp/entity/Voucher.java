@@ -90,6 +90,24 @@ public class Voucher implements Serializable {
     @TableField(exist = false)
     private LocalDateTime endTime;
 
+    /**
+     * 秒杀库存分片数，超热门的券可以拆分到多个分片，为空或1表示不分片
+     */
+    @TableField(exist = false)
+    private Integer stockShards;
+
+    /**
+     * 秒杀限流：这张券每秒最多接受的请求数，为空使用默认值
+     */
+    @TableField(exist = false)
+    private Integer rateLimit;
+
+    /**
+     * 秒杀限流：每个用户对这张券每秒最多的请求数，为空使用默认值
+     */
+    @TableField(exist = false)
+    private Integer userRateLimit;
+
     /**
      * 创建时间
      */
@@ -3,6 +3,9 @@ package com.hmdp.service;
 import com.hmdp.dto.Result;
 import com.hmdp.entity.VoucherOrder;
 import com.baomidou.mybatisplus.extension.service.IService;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+import java.util.List;
 
 /**
  * <p>
@@ -16,5 +19,17 @@ public interface IVoucherOrderService extends IService<VoucherOrder> {
 
     Result seckillVoucher(Long voucherId);
 
-    void createVoucherOrder(VoucherOrder voucherOrder);
+    Result queryOrderStatus(Long orderId);
+
+    SseEmitter subscribeOrderStatus(Long orderId);
+
+    /**
+     * 创建一个订单，返回订单是否已经入库(因为一人一单没有创建时返回false)
+     */
+    boolean createVoucherOrder(VoucherOrder voucherOrder);
+
+    /**
+     * 批量创建订单，返回已经入库的订单；同一批中重复的、用户已经有订单的不会入库
+     */
+    List<VoucherOrder> createVoucherOrders(List<VoucherOrder> voucherOrders);
 }
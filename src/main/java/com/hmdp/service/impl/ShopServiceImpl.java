@@ -1,7 +1,6 @@
 package com.hmdp.service.impl;
 
 import cn.hutool.core.bean.BeanUtil;
-import cn.hutool.core.util.BooleanUtil;
 import cn.hutool.core.util.StrUtil;
 import cn.hutool.json.JSONObject;
 import cn.hutool.json.JSONUtil;
@@ -13,11 +12,22 @@ import com.hmdp.mapper.ShopMapper;
 import com.hmdp.service.IShopService;
 import com.baomidou.mybatisplus.extension.service.impl.ServiceImpl;
 import com.hmdp.utils.CacheClient;
+import com.hmdp.utils.CacheInvalidator;
+import com.hmdp.utils.CacheMode;
+import com.hmdp.utils.CacheRebuildBusyException;
+import com.hmdp.utils.CacheRebuildExecutor;
+import com.hmdp.utils.CacheWarmUp;
+import com.hmdp.utils.ILock;
+import com.hmdp.utils.IdBloomFilter;
+import com.hmdp.utils.LocalCache;
 import com.hmdp.utils.RedisConstants;
 import com.hmdp.utils.RedisData;
+import com.hmdp.utils.RedisLockFactory;
+import com.hmdp.utils.SingleFlight;
 import com.hmdp.utils.SystemConstants;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.data.geo.Distance;
 import org.springframework.data.geo.GeoResult;
 import org.springframework.data.geo.GeoResults;
@@ -27,11 +37,11 @@ import org.springframework.data.redis.domain.geo.GeoReference;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
 
+import javax.annotation.PostConstruct;
 import java.time.LocalDateTime;
 import java.util.*;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
 import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
 
 /**
  * <p>
@@ -51,13 +61,82 @@ public class ShopServiceImpl extends ServiceImpl<ShopMapper, Shop> implements IS
     @Autowired
     private CacheClient cacheClient;
 
+    @Autowired
+    private IdBloomFilter idBloomFilter;
+
+    @Autowired
+    private CacheInvalidator cacheInvalidator;
+
+    //[缓存击穿-互斥锁] 本地缓存(L1)，等待重建超时时从这里取旧数据
+    @Autowired
+    private LocalCache localCache;
+
+    //可重入分布式锁，支持等待和看门狗续期
+    @Autowired
+    private RedisLockFactory redisLockFactory;
+
+    //重建缓存使用共享的线程池：有界队列、同一个key只提交一次
+    @Autowired
+    private CacheRebuildExecutor cacheRebuildExecutor;
+
+    //[缓存击穿-互斥锁] 合并本节点内同一个key的重建
+    private final SingleFlight singleFlight = new SingleFlight();
+
+    //[缓存击穿-互斥锁] 等待其他线程重建的最长时间
+    @Value("${hmdp.cache.mutex.wait-millis:1000}")
+    private long mutexWaitMillis;
+
+    @Value("${hmdp.bloom.shop.expected-insertions:100000}")
+    private long bloomExpectedInsertions;
+
+    @Value("${hmdp.bloom.shop.false-probability:0.001}")
+    private double bloomFalseProbability;
+
+    @Autowired
+    private CacheWarmUp cacheWarmUp;
+
+    //店铺缓存的查询方式，缓存预热按同样的格式写入
+    @Value("${hmdp.cache.shop.mode:pass-through}")
+    private String shopCacheMode;
+
+    @Value("${hmdp.cache.warm-up.shop.enabled:false}")
+    private boolean warmUpEnabled;
+
+    @Value("${hmdp.cache.warm-up.shop.hot-ids:}")
+    private List<Long> warmUpHotIds;
+
+    @PostConstruct
+    private void init() {
+        //[布隆过滤器]注册店铺id过滤器，并让店铺缓存查询先经过它
+        idBloomFilter.register(RedisConstants.BLOOM_SHOP_KEY, bloomExpectedInsertions, bloomFalseProbability,
+                (afterId, limit) -> query().select("id")
+                        .gt("id", afterId)
+                        .orderByAsc("id")
+                        .last("LIMIT " + limit)
+                        .list()
+                        .stream()
+                        .map(Shop::getId)
+                        .collect(Collectors.toList()));
+        cacheClient.enableBloomGuard(RedisConstants.CACHE_SHOP_KEY, RedisConstants.BLOOM_SHOP_KEY);
+        //[缓存预热]逻辑过期的查询方式要求数据提前写入Redis，写入的格式与查询方式一致
+        if (warmUpEnabled) {
+            cacheWarmUp.register(RedisConstants.CACHE_SHOP_KEY, CacheMode.of(shopCacheMode), warmUpHotIds,
+                    (afterId, limit) -> query()
+                            .gt("id", afterId)
+                            .orderByAsc("id")
+                            .last("LIMIT " + limit)
+                            .list(),
+                    this::listByIds, Shop::getId, RedisConstants.CACHE_SHOP_TTL, TimeUnit.MINUTES);
+        }
+    }
+
     @Override
     public Result queryById(Long id) {
         //缓存穿透
         //Shop shop = queryWithPassThrough(id);
 
-        //工具类实现：缓存穿透
-        Shop shop = cacheClient.queryWithPassThrough(RedisConstants.CACHE_SHOP_KEY, id, Shop.class, this::getById, RedisConstants.CACHE_SHOP_TTL, TimeUnit.MINUTES);
+        //工具类实现：按hmdp.cache.shop.mode选择 缓存穿透(pass-through)、逻辑过期(logical-expire)、提前刷新(early-refresh)
+        Shop shop = cacheClient.query(CacheMode.of(shopCacheMode), RedisConstants.CACHE_SHOP_KEY, id, Shop.class, this::getById, RedisConstants.CACHE_SHOP_TTL, TimeUnit.MINUTES);
 
         //缓存击穿:互斥锁
         //Shop shop = queryWithMutex(id);
@@ -65,9 +144,6 @@ public class ShopServiceImpl extends ServiceImpl<ShopMapper, Shop> implements IS
         //缓存击穿:逻辑过期
         //Shop shop = queryWithExpire(id);
 
-        //工具类实现：缓存击穿
-        //Shop shop = cacheClient.queryWithLogicalExpire(RedisConstants.CACHE_SHOP_KEY, id, Shop.class, this::getById, RedisConstants.CACHE_SHOP_TTL, TimeUnit.MINUTES);
-
         if (shop == null) {
             return Result.fail("店铺不存在");
         }
@@ -132,17 +208,43 @@ public class ShopServiceImpl extends ServiceImpl<ShopMapper, Shop> implements IS
             return null;
         }
 
-        //[缓存击穿]获取互斥锁
-        String lockKey = RedisConstants.LOCK_SHOP_KEY + id;
+        //[缓存击穿]本节点内只有一个线程去重建，其他线程等待它完成后直接拿到重建的结果，不再休眠重试；
+        //最多等待mutexWaitMillis，超时返回本地缓存(L1)中的旧数据，没有则提示稍后重试，
+        //不能让所有等待者都去查询数据库
+        return singleFlight.execute(key, () -> rebuildWithMutex(id, key),
+                mutexWaitMillis, TimeUnit.MILLISECONDS, () -> staleOrBusy(key));
+    }
+
+    //[缓存击穿-互斥锁] 等待重建超时：本地缓存中的旧数据，没有则抛出CacheRebuildBusyException，由调用方稍后重试
+    private Shop staleOrBusy(String key) {
+        Object stale = localCache.get(key);
+        if (stale instanceof Shop) {
+            return (Shop) stale;
+        }
+        throw new CacheRebuildBusyException(key);
+    }
+
+    //[缓存击穿-互斥锁] 获取锁后重建缓存，返回重建的结果
+    private Shop rebuildWithMutex(Long id, String key) {
+        //[缓存击穿]获取互斥锁(按缓存key命名，与CacheClient重建同一个key时使用同一把锁)，被其他节点占用时等待释放通知，同样最多等待mutexWaitMillis
+        ILock lock = redisLockFactory.getHybridLock(key);
         Shop shop = null;
+        boolean isLock = false;
         try {
-            boolean isLock = tryLock(lockKey);
+            isLock = lock.tryLock(mutexWaitMillis, -1, TimeUnit.MILLISECONDS);
             //[缓存击穿]判断是否获取成功
             if (!isLock) {
-                //[缓存击穿]失败，则休眠重试
-                Thread.sleep(50);
-                //重试就是重新查询缓存，所以这里直接使用递归
-                return queryWithMutex(id);
+                //[缓存击穿]等待超时，其他节点的重建一直没有完成，同样返回旧数据或提示稍后重试
+                return staleOrBusy(key);
+            }
+
+            //[缓存击穿]获取锁成功，再次检查缓存，等待期间可能已经被其他节点重建
+            String shopJson = stringRedisTemplate.opsForValue().get(key);
+            if (StrUtil.isNotBlank(shopJson)) {
+                return JSONUtil.toBean(shopJson, Shop.class);
+            }
+            if (shopJson != null) {
+                return null;
             }
 
             //4.成功，根据id查询数据库
@@ -155,25 +257,27 @@ public class ShopServiceImpl extends ServiceImpl<ShopMapper, Shop> implements IS
             if (shop == null) {
                 //[缓存穿透]将空值写入redis
                 stringRedisTemplate.opsForValue().set(key, "", RedisConstants.CACHE_NULL_TTL, TimeUnit.MINUTES);
+                localCache.evict(key);
                 return null;
             }
             //6.存在，写入Redis
             stringRedisTemplate.opsForValue().set(key, JSONUtil.toJsonStr(shop), RedisConstants.CACHE_SHOP_TTL, TimeUnit.MINUTES);
+            //重建后放入本地缓存，之后等待重建超时的请求可以拿到旧数据
+            localCache.put(key, shop);
 
         } catch (InterruptedException e) {
             throw new RuntimeException(e);
         } finally {
             //[缓存击穿]释放互斥锁
-            unlock(lockKey);
+            if (isLock) {
+                lock.unlock();
+            }
         }
 
         //7.返回
         return shop;
     }
 
-    //这里需要声明一个线程池，因为下面需要新建一个现成来完成重构缓存
-    private static final ExecutorService CACHE_REBUILD_EXECUTOR = Executors.newFixedThreadPool(10);
-
     /**
      * queryById：解决缓存击穿：使用逻辑过期
      *
@@ -199,43 +303,28 @@ public class ShopServiceImpl extends ServiceImpl<ShopMapper, Shop> implements IS
         }
 
         //4.2 过期，则需要缓存重建
-        //5.缓存重建
-        //5.1 获取互斥锁
-        String lockKey = RedisConstants.LOCK_SHOP_KEY + id;
-        boolean isLock = tryLock(lockKey);
-        //5.2 判断是否获取锁成功
-        if (isLock) {
-            //成功则开启独立线程，并返回旧的店铺信息
-            CACHE_REBUILD_EXECUTOR.submit(() -> {
-                try {
-                    //重建缓存(这里过期时间设置得短，为了便于测试)
-                    this.saveShop2Redis(id, 30L);
-                } catch (Exception e) {
-                    throw new RuntimeException(e);
-                } finally {
-                    //释放锁
-                    unlock(lockKey);
-                }
-            });
-            //直接返回商铺信息
-            return shop;
-        }
-        //未获取到锁，直接返回商铺信息
+        //5.缓存重建：提交失败(已在重建或队列已满)时同样直接返回旧数据
+        cacheRebuildExecutor.submit(RedisConstants.CACHE_SHOP_KEY, key, () -> {
+            //5.1 获取互斥锁(按缓存key命名，与CacheClient相同)，本节点内先抢本地锁
+            ILock lock = redisLockFactory.getHybridLock(key);
+            //5.2 判断是否获取锁成功
+            if (!lock.tryLock(RedisConstants.LOCK_SHOP_TTL)) {
+                return;
+            }
+            try {
+                //重建缓存(这里过期时间设置得短，为了便于测试)
+                this.saveShop2Redis(id, 30L);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } finally {
+                //释放锁
+                lock.unlock();
+            }
+        });
+        //直接返回商铺信息
         return shop;
     }
 
-    //[缓存击穿-互斥锁]：获取锁
-    private boolean tryLock(String key) {
-        Boolean flag = stringRedisTemplate.opsForValue().setIfAbsent(key, "1", 10, TimeUnit.SECONDS);
-        //避免返回值为null，我们这里使用了BooleanUtil工具类
-        return BooleanUtil.isTrue(flag);
-    }
-
-    //[缓存击穿-互斥锁]：释放锁
-    private void unlock(String key) {
-        stringRedisTemplate.delete(key);
-    }
-
     //[缓存击穿-逻辑过期] 缓存重建：封装过期时间，并写入redis
     public void saveShop2Redis(Long id, Long expireSeconds) throws InterruptedException {
         //1.查询店铺数据
@@ -250,6 +339,16 @@ public class ShopServiceImpl extends ServiceImpl<ShopMapper, Shop> implements IS
     }
 
 
+    @Override
+    public Result saveShop(Shop shop) {
+        // 写入数据库
+        save(shop);
+        // 加入布隆过滤器，否则新店铺会被当成不存在
+        idBloomFilter.add(RedisConstants.BLOOM_SHOP_KEY, shop.getId());
+        // 返回店铺id
+        return Result.ok(shop.getId());
+    }
+
     @Override
     @Transactional
     public Result update(Shop shop) {
@@ -259,8 +358,8 @@ public class ShopServiceImpl extends ServiceImpl<ShopMapper, Shop> implements IS
         }
         //1.更新数据库
         updateById(shop);
-        //2.删除缓存
-        stringRedisTemplate.delete(RedisConstants.CACHE_SHOP_KEY + id);
+        //2.删除缓存：事务提交后异步批量删除，并延迟再删一次(同时广播，让各节点的本地缓存失效)
+        cacheInvalidator.invalidate(RedisConstants.CACHE_SHOP_KEY + id);
         return Result.ok();
     }
 
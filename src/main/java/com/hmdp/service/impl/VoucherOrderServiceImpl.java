@@ -1,5 +1,6 @@
 package com.hmdp.service.impl;
 
+import cn.hutool.core.bean.BeanUtil;
 import com.baomidou.mybatisplus.core.conditions.update.LambdaUpdateWrapper;
 import com.baomidou.mybatisplus.extension.plugins.pagination.Page;
 import com.hmdp.config.RedissonConfig;
@@ -10,26 +11,43 @@ import com.hmdp.mapper.VoucherOrderMapper;
 import com.hmdp.service.ISeckillVoucherService;
 import com.hmdp.service.IVoucherOrderService;
 import com.baomidou.mybatisplus.extension.service.impl.ServiceImpl;
-import com.hmdp.utils.RedisIdWorker;
+import com.hmdp.utils.IdGenerator;
+import com.hmdp.utils.RedisConstants;
+import com.hmdp.utils.RedisScriptRegistry;
+import com.hmdp.utils.SeckillOrderStatus;
+import com.hmdp.utils.SeckillSoldOut;
+import com.hmdp.utils.SeckillStockShards;
 import com.hmdp.utils.SimpleRedisLock;
 import com.hmdp.utils.UserHolder;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
 import org.redisson.api.RLock;
 import org.redisson.api.RedissonClient;
 import org.springframework.aop.framework.AopContext;
 import org.springframework.beans.factory.annotation.Autowired;
-import org.springframework.core.io.ClassPathResource;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Lazy;
+import org.springframework.data.domain.Range;
+import org.springframework.data.redis.RedisSystemException;
+import org.springframework.data.redis.connection.RedisStreamCommands;
+import org.springframework.data.redis.connection.stream.*;
+import org.springframework.data.redis.core.RedisCallback;
 import org.springframework.data.redis.core.StringRedisTemplate;
-import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.data.redis.serializer.RedisSerializer;
+import org.springframework.scheduling.annotation.Scheduled;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
 
 import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
 import java.time.LocalDateTime;
-import java.util.Collections;
-import java.util.concurrent.ArrayBlockingQueue;
-import java.util.concurrent.BlockingQueue;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.stream.Collectors;
 
 /**
  * <p>
@@ -39,6 +57,7 @@ import java.util.concurrent.Executors;
  * @author 虎哥
  * @since 2021-12-22
  */
+@Slf4j
 @Service
 public class VoucherOrderServiceImpl extends ServiceImpl<VoucherOrderMapper, VoucherOrder> implements IVoucherOrderService {
 
@@ -46,7 +65,7 @@ public class VoucherOrderServiceImpl extends ServiceImpl<VoucherOrderMapper, Vou
     private ISeckillVoucherService seckillVoucherService;
 
     @Autowired
-    private RedisIdWorker redisIdWorker;
+    private IdGenerator idGenerator;
 
     @Autowired
     private StringRedisTemplate stringRedisTemplate;
@@ -54,95 +73,509 @@ public class VoucherOrderServiceImpl extends ServiceImpl<VoucherOrderMapper, Vou
     @Autowired
     private RedissonClient redissonClient;
 
-    //加载lua脚本
-    private static final DefaultRedisScript<Long> SECKILL_SCRIPT;
-    static {
-        SECKILL_SCRIPT = new DefaultRedisScript<>();
-        SECKILL_SCRIPT.setLocation(new ClassPathResource("seckill.lua"));
-        SECKILL_SCRIPT.setResultType(Long.class);
-    }
-    //阻塞队列
-    private final BlockingQueue<VoucherOrder> orderTasks = new ArrayBlockingQueue<>(1024 * 1024);
-    //异步下单，准备线程池
-    private static final ExecutorService SECKILL_ORDER_EXECUTOR = Executors.newSingleThreadExecutor();
+    //lua脚本统一由注册中心加载，用EVALSHA调用
+    //seckill：秒杀下单；seckill_shard：分片库存模式下在用户固定的分片上下单；从其他分片转移库存的脚本由SeckillStockShards调用
+    @Autowired
+    private RedisScriptRegistry redisScriptRegistry;
+
+    @Autowired
+    private SeckillStockShards seckillStockShards;
+
+    @Autowired
+    private SeckillOrderStatus seckillOrderStatus;
+
+    @Autowired
+    private SeckillSoldOut seckillSoldOut;
+
+    //秒杀脚本返回值对应的提示：1库存不足，2重复下单，3未开始，4已结束
+    private static final String[] SECKILL_FAIL_MESSAGES = {"", "库存不足", "不能重复下单", "秒杀尚未开始", "秒杀已经结束"};
+
+    //消费者组中本节点的消费者名，默认 进程号@主机名
+    @Value("${hmdp.seckill.consumer-name:#{T(java.lang.management.ManagementFactory).getRuntimeMXBean().getName()}}")
+    private String consumerName;
+
+    //pending中的消息空闲超过这个时间，认为原消费者已经挂掉，由本节点认领
+    @Value("${hmdp.seckill.claim-idle-millis:60000}")
+    private long claimIdleMillis;
+
+    //一条消息最多投递几次，超过后不再重试
+    @Value("${hmdp.seckill.max-deliveries:5}")
+    private long maxDeliveries;
+
+    //每批最多处理的订单数
+    @Value("${hmdp.seckill.batch-size:100}")
+    private int batchSize;
+
+    //队列为空时每次最多等待多久
+    @Value("${hmdp.seckill.batch-wait-millis:200}")
+    private long batchWaitMillis;
+
+    //订单处理的分区数，同一个用户的订单总是进入同一个分区，按顺序处理
+    @Value("${hmdp.seckill.partitions:4}")
+    private int partitionCount;
+
+    //每个分区最多缓存的订单数，满了之后读取线程等待
+    @Value("${hmdp.seckill.partition-capacity:1000}")
+    private int partitionCapacity;
+
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    //异步下单，准备线程池：一个读取线程 + 每个分区一个处理线程
+    private ExecutorService seckillOrderExecutor;
+    private List<OrderPartition> partitions;
+
+    private volatile boolean running = true;
 
     @PostConstruct
     private void init() {
-        SECKILL_ORDER_EXECUTOR.submit(new VoucherOrderHandler());
+        //创建消费者组(XGROUP CREATE stream.orders g1 0 MKSTREAM)，已存在则忽略。每个库存分片有自己的队列
+        for (String streamKey : seckillStockShards.allStreamKeys()) {
+            createGroupIfAbsent(streamKey);
+        }
+        seckillOrderExecutor = Executors.newFixedThreadPool(partitionCount + 1);
+        partitions = new ArrayList<>(partitionCount);
+        for (int i = 0; i < partitionCount; i++) {
+            OrderPartition partition = new OrderPartition(partitionCapacity);
+            partitions.add(partition);
+            //每个分区的积压数量和最早一条订单的等待时间
+            Gauge.builder("hmdp.seckill.partition.queue", partition.queue, Collection::size)
+                    .tag("partition", String.valueOf(i)).register(meterRegistry);
+            Gauge.builder("hmdp.seckill.partition.lag", partition, OrderPartition::lagMillis)
+                    .tag("partition", String.valueOf(i)).baseUnit("milliseconds").register(meterRegistry);
+            seckillOrderExecutor.submit(partition);
+        }
+        seckillOrderExecutor.submit(new VoucherOrderHandler());
     }
 
-    private class VoucherOrderHandler implements Runnable {
+    @PreDestroy
+    private void destroy() throws InterruptedException {
+        //停止读取新消息，分区中已读取的订单处理完再退出；未确认的消息留在pending-list中，重启或由其他节点认领后继续处理
+        running = false;
+        seckillOrderExecutor.shutdown();
+        seckillOrderExecutor.awaitTermination(10, TimeUnit.SECONDS);
+    }
+
+    //按用户id分区，分区满时等待
+    private void dispatch(MapRecord<String, Object, Object> record) throws InterruptedException {
+        partitionOf(record).queue.put(record);
+    }
+
+    //按用户id分区，分区满时最多等待batchWaitMillis，放不进去返回false
+    private boolean tryDispatch(MapRecord<String, Object, Object> record) throws InterruptedException {
+        return partitionOf(record).queue.offer(record, batchWaitMillis, TimeUnit.MILLISECONDS);
+    }
+
+    private OrderPartition partitionOf(MapRecord<String, Object, Object> record) {
+        Long userId = Long.valueOf(record.getValue().get("userId").toString());
+        return partitions.get((int) Math.floorMod(userId, (long) partitions.size()));
+    }
+
+    /**
+     * 订单处理分区：批量取出本分区的订单入库并确认。同一个用户的订单只会在一个分区中按顺序处理，
+     * 因此不再需要按用户加分布式锁
+     */
+    private class OrderPartition implements Runnable {
+        private final BlockingQueue<MapRecord<String, Object, Object>> queue;
+
+        private OrderPartition(int capacity) {
+            this.queue = new ArrayBlockingQueue<>(capacity);
+        }
+
         @Override
         public void run() {
-            while (true) {
+            List<MapRecord<String, Object, Object>> batch = new ArrayList<>(batchSize);
+            while (running || !queue.isEmpty()) {
                 try {
-                    //1. 获取队列中的订单信息
-                    VoucherOrder voucherOrder = orderTasks.take();
-                    //2. 创建订单
-                    handleVoucherOrder(voucherOrder);
+                    //1. 等待第一条订单，然后一次取出一批
+                    MapRecord<String, Object, Object> first = queue.poll(batchWaitMillis, TimeUnit.MILLISECONDS);
+                    if (first == null) {
+                        continue;
+                    }
+                    batch.add(first);
+                    queue.drainTo(batch, batchSize - 1);
+                    //2. 批量创建订单，并ACK确认
+                    handleRecords(batch);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return;
                 } catch (Exception e) {
+                    //未确认的消息留在pending-list中，由claimIdleOrders重新投递
                     log.error("订单处理异常", e);
+                } finally {
+                    batch.clear();
                 }
             }
         }
+
+        //最早一条积压订单写入消息队列至今的时间
+        private double lagMillis() {
+            MapRecord<String, Object, Object> head = queue.peek();
+            return head == null ? 0 : System.currentTimeMillis() - head.getId().getTimestamp();
+        }
     }
 
-    //创建订单逻辑
-    private IVoucherOrderService proxy;
-    private void handleVoucherOrder(VoucherOrder voucherOrder) {
-        //1. 获取用户
-        Long userId = voucherOrder.getUserId();
-        //2. 创建锁对象，作为兜底方案
-        RLock redisLock = redissonClient.getLock("order:" + userId);
-        //3. 获取锁
-        boolean isLock = redisLock.tryLock();
-        //4. 判断是否获取锁成功
-        if (!isLock) {
-            log.error("不允许重复下单!");
+    private void createGroupIfAbsent(String streamKey) {
+        try {
+            stringRedisTemplate.execute((RedisCallback<String>) connection -> connection.streamCommands().xGroupCreate(
+                    streamKey.getBytes(StandardCharsets.UTF_8),
+                    RedisConstants.SECKILL_ORDER_GROUP, ReadOffset.from("0"), true));
+        } catch (RedisSystemException e) {
+            if (e.getMessage() == null || !e.getMessage().contains("BUSYGROUP")) {
+                throw e;
+            }
+        }
+    }
+
+    private class VoucherOrderHandler implements Runnable {
+        @Override
+        public void run() {
+            //启动时先处理本节点上次没有确认的消息
+            handlePendingList();
+            while (running) {
+                try {
+                    //1. 获取消息队列中的订单信息，一次最多取一批 XREADGROUP GROUP g1 c1 COUNT 100 BLOCK 200 STREAMS stream.orders >
+                    List<MapRecord<String, Object, Object>> list = stringRedisTemplate.opsForStream().read(
+                            Consumer.from(RedisConstants.SECKILL_ORDER_GROUP, consumerName),
+                            StreamReadOptions.empty().count(batchSize).block(Duration.ofMillis(batchWaitMillis)),
+                            streamOffsets(ReadOffset.lastConsumed())
+                    );
+                    //2. 判断消息获取是否成功
+                    if (list == null || list.isEmpty()) {
+                        //2.1 如果获取失败，说明没有消息，继续下一次循环
+                        continue;
+                    }
+                    //3. 按用户分发到各个分区，由分区线程创建订单并ACK确认
+                    for (MapRecord<String, Object, Object> record : list) {
+                        dispatch(record);
+                    }
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return;
+                } catch (Exception e) {
+                    //处理失败的消息还在pending-list中，由claimIdleOrders重新投递
+                    log.error("读取订单消息异常", e);
+                }
+            }
+        }
+
+        //启动时分区线程还没有订单，直接在读取线程中处理，处理完再开始分发新消息。
+        //每个队列从上一批的最后一条之后继续读，pending-list只遍历一遍；仍然处理失败的消息不再反复重读，
+        //空闲时间超过claim-idle-millis后由claimIdleOrders重新投递
+        private void handlePendingList() {
+            Map<String, ReadOffset> offsets = new LinkedHashMap<>();
+            for (String streamKey : seckillStockShards.allStreamKeys()) {
+                offsets.put(streamKey, ReadOffset.from("0"));
+            }
+            while (running) {
+                try {
+                    //1. 获取pending-list中的订单信息 XREADGROUP GROUP g1 c1 COUNT 100 STREAMS stream.orders 0
+                    List<MapRecord<String, Object, Object>> list = stringRedisTemplate.opsForStream().read(
+                            Consumer.from(RedisConstants.SECKILL_ORDER_GROUP, consumerName),
+                            StreamReadOptions.empty().count(batchSize),
+                            streamOffsets(offsets)
+                    );
+                    //2. 判断消息获取是否成功
+                    if (list == null || list.isEmpty()) {
+                        //2.1 如果获取失败，说明pending-list没有异常消息，结束循环
+                        break;
+                    }
+                    //2.2 记录每个队列读到的位置，下一批从这里之后开始
+                    for (MapRecord<String, Object, Object> record : list) {
+                        offsets.put(record.getStream(), ReadOffset.from(record.getId()));
+                    }
+                    //3. 超过最大投递次数的消息不再处理，其余的批量创建订单，并ACK确认
+                    List<MapRecord<String, Object, Object>> records = dropExhausted(list);
+                    if (!records.isEmpty()) {
+                        handleRecords(records);
+                    }
+                } catch (Exception e) {
+                    log.error("处理pending-list订单异常", e);
+                    try {
+                        Thread.sleep(20);
+                    } catch (InterruptedException ex) {
+                        Thread.currentThread().interrupt();
+                        return;
+                    }
+                }
+            }
+        }
+
+        //查询这批消息的投递次数(XPENDING)，放弃已经投递超过maxDeliveries次的消息，返回剩下的
+        private List<MapRecord<String, Object, Object>> dropExhausted(List<MapRecord<String, Object, Object>> list) {
+            Map<String, List<MapRecord<String, Object, Object>>> byStream = list.stream()
+                    .collect(Collectors.groupingBy(MapRecord::getStream, LinkedHashMap::new, Collectors.toList()));
+            List<MapRecord<String, Object, Object>> records = new ArrayList<>(list.size());
+            byStream.forEach((streamKey, streamRecords) -> {
+                Map<RecordId, Long> deliveries = new HashMap<>(streamRecords.size());
+                PendingMessages pendingMessages = stringRedisTemplate.opsForStream().pending(streamKey,
+                        Consumer.from(RedisConstants.SECKILL_ORDER_GROUP, consumerName),
+                        Range.closed(streamRecords.get(0).getId().getValue(),
+                                streamRecords.get(streamRecords.size() - 1).getId().getValue()),
+                        streamRecords.size());
+                for (PendingMessage pending : pendingMessages) {
+                    deliveries.put(pending.getId(), pending.getTotalDeliveryCount());
+                }
+                for (MapRecord<String, Object, Object> record : streamRecords) {
+                    //投递次数已经包含了这一次读取
+                    if (deliveries.getOrDefault(record.getId(), 0L) > maxDeliveries) {
+                        abandon(record);
+                    } else {
+                        records.add(record);
+                    }
+                }
+            });
+            return records;
+        }
+    }
+
+    //同时读取不分片的队列和所有分片的队列
+    @SuppressWarnings("unchecked")
+    private StreamOffset<String>[] streamOffsets(ReadOffset readOffset) {
+        return seckillStockShards.allStreamKeys().stream()
+                .map(key -> StreamOffset.create(key, readOffset))
+                .toArray(StreamOffset[]::new);
+    }
+
+    //每个队列从各自的位置开始读
+    @SuppressWarnings("unchecked")
+    private StreamOffset<String>[] streamOffsets(Map<String, ReadOffset> offsets) {
+        return offsets.entrySet().stream()
+                .map(entry -> StreamOffset.create(entry.getKey(), entry.getValue()))
+                .toArray(StreamOffset[]::new);
+    }
+
+    //多次处理都失败，不再重试，避免一直阻塞：确认消息，通知客户端下单失败
+    private void abandon(MapRecord<String, Object, Object> record) {
+        log.error("订单消息超过最大投递次数，放弃处理：{}", record.getValue());
+        stringRedisTemplate.opsForStream().acknowledge(
+                record.getStream(), RedisConstants.SECKILL_ORDER_GROUP, record.getId());
+        seckillOrderStatus.complete(
+                BeanUtil.fillBeanWithMap(record.getValue(), new VoucherOrder(), true), SeckillOrderStatus.FAILED);
+    }
+
+    /**
+     * 认领长时间未确认的消息，XPENDING + XCLAIM：其他节点(已经宕机)的消息，以及本节点处理失败的消息
+     */
+    @Scheduled(fixedDelayString = "${hmdp.seckill.claim-interval-millis:30000}")
+    public void claimIdleOrders() {
+        for (String streamKey : seckillStockShards.allStreamKeys()) {
+            claimIdleOrders(streamKey);
+        }
+    }
+
+    private void claimIdleOrders(String streamKey) {
+        PendingMessages pendingMessages = stringRedisTemplate.opsForStream().pending(
+                streamKey, RedisConstants.SECKILL_ORDER_GROUP, Range.unbounded(), 100L);
+        for (PendingMessage pending : pendingMessages) {
+            if (pending.getElapsedTimeSinceLastDelivery().toMillis() < claimIdleMillis) {
+                continue;
+            }
+            //可能已经被其他节点抢先认领
+            for (MapRecord<String, Object, Object> record : claim(streamKey, pending.getId())) {
+                log.info("认领消费者{}未确认的订单消息：{}", pending.getConsumerName(), record.getId());
+                if (pending.getTotalDeliveryCount() >= maxDeliveries) {
+                    abandon(record);
+                    continue;
+                }
+                try {
+                    //同样按用户分区处理，保证同一用户的订单顺序。这里运行在定时任务线程上，分区已满时不能一直阻塞，
+                    //消息留在本节点的pending-list中(XCLAIM已重置空闲时间)，下一轮再认领
+                    if (!tryDispatch(record)) {
+                        log.warn("订单分区已满，稍后再认领：{}", record.getId());
+                        return;
+                    }
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+            }
+        }
+    }
+
+    //XCLAIM，空闲时间仍然超过claim-idle-millis才认领成功
+    private List<MapRecord<String, Object, Object>> claim(String streamKey, RecordId id) {
+        List<ByteRecord> records = stringRedisTemplate.execute((RedisCallback<List<ByteRecord>>) connection ->
+                connection.streamCommands().xClaim(streamKey.getBytes(StandardCharsets.UTF_8),
+                        RedisConstants.SECKILL_ORDER_GROUP, consumerName,
+                        RedisStreamCommands.XClaimOptions.minIdleMs(claimIdleMillis).ids(id)));
+        if (records == null) {
+            return Collections.emptyList();
+        }
+        RedisSerializer<String> serializer = stringRedisTemplate.getStringSerializer();
+        return records.stream()
+                .map(record -> record.<String, Object, Object>deserialize(serializer, serializer, serializer))
+                .collect(Collectors.toList());
+    }
+
+    /**
+     * 一批订单在一个事务中保存：一条多行INSERT，每种优惠券一条扣减库存的UPDATE。
+     * 整批失败时退回逐条处理，有问题的订单留在pending-list中，不影响同批的其他订单
+     */
+    private void handleRecords(List<MapRecord<String, Object, Object>> records) {
+        if (records.size() == 1) {
+            handleRecord(records.get(0));
             return;
         }
+        //1. 解析消息中的订单信息
+        List<VoucherOrder> voucherOrders = new ArrayList<>(records.size());
+        for (MapRecord<String, Object, Object> record : records) {
+            voucherOrders.add(BeanUtil.fillBeanWithMap(record.getValue(), new VoucherOrder(), true));
+        }
+        List<VoucherOrder> stored;
         try {
-            //5. 使用代理对象，由于这里是另外一个线程，
-            proxy.createVoucherOrder(voucherOrder);
-        } finally {
-            redisLock.unlock();
+            //2. 批量创建订单
+            stored = proxy.createVoucherOrders(voucherOrders);
+        } catch (Exception e) {
+            //3. 整批失败，逐条重试
+            log.warn("批量创建订单失败，逐条处理，数量：{}", records.size(), e);
+            for (MapRecord<String, Object, Object> record : records) {
+                try {
+                    handleRecord(record);
+                } catch (Exception ex) {
+                    log.error("订单处理异常：{}", record.getValue(), ex);
+                }
+            }
+            return;
         }
+        //4. 每个队列一次ACK确认整批消息
+        Map<String, List<RecordId>> idsByStream = records.stream().collect(Collectors.groupingBy(
+                MapRecord::getStream, Collectors.mapping(MapRecord::getId, Collectors.toList())));
+        idsByStream.forEach((streamKey, ids) -> stringRedisTemplate.opsForStream().acknowledge(
+                streamKey, RedisConstants.SECKILL_ORDER_GROUP, ids.toArray(new RecordId[0])));
+        //5. 通知客户端：入库的订单已创建，因为一人一单被去掉的订单失败
+        Set<Long> storedIds = stored.stream().map(VoucherOrder::getId).collect(Collectors.toSet());
+        Map<Boolean, List<VoucherOrder>> byResult = voucherOrders.stream()
+                .collect(Collectors.partitioningBy(voucherOrder -> storedIds.contains(voucherOrder.getId())));
+        seckillOrderStatus.complete(byResult.get(true), SeckillOrderStatus.CREATED);
+        seckillOrderStatus.complete(byResult.get(false), SeckillOrderStatus.FAILED);
+    }
+
+    private void handleRecord(MapRecord<String, Object, Object> record) {
+        //1. 解析消息中的订单信息
+        Map<Object, Object> value = record.getValue();
+        VoucherOrder voucherOrder = BeanUtil.fillBeanWithMap(value, new VoucherOrder(), true);
+        //2. 创建订单
+        boolean stored = handleVoucherOrder(voucherOrder);
+        //3. ACK确认 SACK stream.orders g1 id
+        stringRedisTemplate.opsForStream().acknowledge(
+                record.getStream(), RedisConstants.SECKILL_ORDER_GROUP, record.getId());
+        //4. 通知客户端订单已创建，因为一人一单没有入库时通知失败
+        seckillOrderStatus.complete(voucherOrder, stored ? SeckillOrderStatus.CREATED : SeckillOrderStatus.FAILED);
+    }
+
+    //创建订单逻辑。消费线程启动时可能还没有请求进来，因此直接注入代理对象，而不是在请求线程中获取
+    @Lazy
+    @Autowired
+    private IVoucherOrderService proxy;
+
+    private boolean handleVoucherOrder(VoucherOrder voucherOrder) {
+        //同一用户的订单只会在一个分区线程中按顺序处理，不需要再加锁兜底
+        //使用代理对象，由于这里是另外一个线程，
+        return proxy.createVoucherOrder(voucherOrder);
     }
 
     @Override
     public Result seckillVoucher(Long voucherId) {
-        //1. 执行lua脚本
-        Long result = stringRedisTemplate.execute(
-                SECKILL_SCRIPT,
-                Collections.emptyList(),
-                voucherId.toString(), UserHolder.getUser().getId().toString()
-        );
+        //0. 本节点已知售罄，不再访问Redis
+        if (seckillSoldOut.isSoldOut(voucherId)) {
+            return Result.fail("库存不足");
+        }
+        Long userId = UserHolder.getUser().getId();
+        //获取订单id，和订单信息一起在lua脚本中写入消息队列
+        long orderId = idGenerator.nextId("order");
+        //1. 执行lua脚本，超热门的券库存拆分在多个分片中
+        int shards = seckillStockShards.shardCount(voucherId);
+        int r;
+        if (shards > 1) {
+            r = seckillWithShards(voucherId, userId, orderId, shards);
+        } else {
+            Long result = redisScriptRegistry.execute(
+                    "seckill",
+                    Collections.emptyList(),
+                    voucherId.toString(), userId.toString(), String.valueOf(orderId)
+            );
+            r = result.intValue();
+        }
 
         //2. 判断返回值是否为0
-        int r = result.intValue();
+        if (r == 1) {
+            //2.1 库存不足，标记售罄并通知其他节点
+            seckillSoldOut.markSoldOut(voucherId);
+        }
         if (r != 0) {
-            //2.1 不为0代表没有购买资格
-            return Result.fail(r == 1 ? "库存不足" : "不能重复下单");
+            //2.2 不为0代表没有购买资格
+            return Result.fail(SECKILL_FAIL_MESSAGES[r]);
         }
-        //2.2 为0，有购买资格，把下单信息保存在阻塞队列
-        long orderId = redisIdWorker.nextId("order");
-        // TODO 保存阻塞队列
-
-        //封装到voucherOrder中
-        VoucherOrder voucherOrder = new VoucherOrder();
-        voucherOrder.setVoucherId(voucherId);
-        voucherOrder.setUserId(UserHolder.getUser().getId());
-        voucherOrder.setId(orderId);
-        //加入到阻塞队列
-        orderTasks.add(voucherOrder);
-
-        //主线程获取代理对象
-        proxy = (IVoucherOrderService) AopContext.currentProxy();
+        //2.3 为0，有购买资格，下单信息已经保存到消息队列，记录排队状态
+        seckillOrderStatus.queued(userId, orderId);
 
         //3. 返回订单id
         return Result.ok(orderId);
     }
 
+    @Override
+    public Result queryOrderStatus(Long orderId) {
+        //只查询Redis中的状态，不访问数据库
+        String status = seckillOrderStatus.get(UserHolder.getUser().getId(), orderId);
+        if (status == null) {
+            return Result.fail("订单不存在");
+        }
+        return Result.ok(status);
+    }
+
+    @Override
+    public SseEmitter subscribeOrderStatus(Long orderId) {
+        return seckillOrderStatus.subscribe(UserHolder.getUser().getId(), orderId);
+    }
+
+    /**
+     * 分片库存模式下的秒杀，返回值与seckill.lua相同：0成功，1库存不足，2重复下单，3未开始，4已结束。
+     * <p>
+     * 用户先在自己固定的分片上下单；该分片库存为空时，依次从其他分片扣一个库存，
+     * 再回到固定分片记录订单。一人一单只在固定分片中判断。
+     * 扣库存和记录订单在不同的槽，不是原子的：扣库存时同时记录转移，请求中途失败留下的记录由
+     * {@link SeckillStockShards#reconcileTransfers()}确认或归还库存，见SeckillStockShards的说明。
+     */
+    private int seckillWithShards(Long voucherId, Long userId, long orderId, int shards) {
+        int home = seckillStockShards.homeShard(userId, shards);
+        //1. 在固定分片上直接下单
+        int r = executeShardScript(voucherId, userId, orderId, home, false);
+        if (r != 1) {
+            return r;
+        }
+        //2. 固定分片库存不足，从其他分片扣库存
+        for (int i = 1; i < shards; i++) {
+            int shard = (home + i) % shards;
+            if (!seckillStockShards.takeStock(voucherId, shard, orderId, userId, home)) {
+                continue;
+            }
+            //3. 扣到库存后，回到固定分片记录订单(记录失败抛出异常时，转移记录留给对账任务)
+            r = executeShardScript(voucherId, userId, orderId, home, true);
+            //4. 结束转移：成功则删除转移记录；同一用户并发请求已经下过单(或秒杀刚好结束)，同时归还库存
+            try {
+                seckillStockShards.finishTransfer(voucherId, shard, orderId, userId, home, r != 0);
+            } catch (Exception e) {
+                log.warn("结束库存转移失败，留给对账任务处理，订单：{}", orderId, e);
+            }
+            return r;
+        }
+        //4. 所有分片都已售罄
+        return 1;
+    }
+
+    private int executeShardScript(Long voucherId, Long userId, long orderId, int shard, boolean taken) {
+        Long result = redisScriptRegistry.execute(
+                "seckill_shard",
+                Arrays.asList(seckillStockShards.stockKey(voucherId, shard),
+                        seckillStockShards.orderKey(voucherId, shard),
+                        seckillStockShards.streamKey(shard),
+                        seckillStockShards.timeKey(voucherId, shard)),
+                voucherId.toString(), userId.toString(), String.valueOf(orderId), taken ? "1" : "0"
+        );
+        return result.intValue();
+    }
+
     /*@Override
     public Result seckillVoucher(Long voucherId) {
         //1.查询优惠券
@@ -166,7 +599,7 @@ public class VoucherOrderServiceImpl extends ServiceImpl<VoucherOrderMapper, Vou
         // synchronized (userId.toString().intern()){
 
         //[redis实现分布式锁]
-        //SimpleRedisLock lock = new SimpleRedisLock(stringRedisTemplate, "order:" + userId);
+        //ILock lock = redisLockFactory.getLock("order:" + userId);
         RLock lock = redissonClient.getLock("order:" + userId);
         //boolean tryLock = lock.tryLock(5);
         boolean tryLock = lock.tryLock();
@@ -185,15 +618,19 @@ public class VoucherOrderServiceImpl extends ServiceImpl<VoucherOrderMapper, Vou
     }*/
 
     @Transactional
-    public void createVoucherOrder(VoucherOrder voucherOrder) {
+    public boolean createVoucherOrder(VoucherOrder voucherOrder) {
         //[一人一单]
         // 查询订单
         Long userId = voucherOrder.getUserId();
         Integer count = query().eq("user_id", userId).eq("voucher_id", voucherOrder.getVoucherId()).count();
         // 判断订单是否存在
         if (count > 0) {
+            //消息重复投递时已经存在的就是这一单
+            if (getById(voucherOrder.getId()) != null) {
+                return true;
+            }
             log.error("不能重复购买");
-            return;
+            return false;
         }
 
         //5.扣减库存
@@ -208,5 +645,65 @@ public class VoucherOrderServiceImpl extends ServiceImpl<VoucherOrderMapper, Vou
 
         //6.创建订单
         save(voucherOrder);
+        return true;
+    }
+
+    @Override
+    @Transactional
+    public List<VoucherOrder> createVoucherOrders(List<VoucherOrder> voucherOrders) {
+        //[一人一单] 同一批中去重，并去掉数据库中已经存在的订单(消息重复投递)
+        Map<String, VoucherOrder> unique = new LinkedHashMap<>(voucherOrders.size());
+        for (VoucherOrder voucherOrder : voucherOrders) {
+            unique.putIfAbsent(voucherOrder.getUserId() + ":" + voucherOrder.getVoucherId(), voucherOrder);
+        }
+        Set<Long> userIds = new HashSet<>();
+        Set<Long> voucherIds = new HashSet<>();
+        for (VoucherOrder voucherOrder : unique.values()) {
+            userIds.add(voucherOrder.getUserId());
+            voucherIds.add(voucherOrder.getVoucherId());
+        }
+        List<VoucherOrder> existing = query().select("id", "user_id", "voucher_id")
+                .in("user_id", userIds)
+                .in("voucher_id", voucherIds)
+                .list();
+        //消息重复投递：数据库中已经是这一单，同样算作已入库
+        List<VoucherOrder> stored = new ArrayList<>(unique.size());
+        for (VoucherOrder order : existing) {
+            VoucherOrder removed = unique.remove(order.getUserId() + ":" + order.getVoucherId());
+            if (removed == null) {
+                continue;
+            }
+            if (removed.getId().equals(order.getId())) {
+                stored.add(removed);
+            } else {
+                log.error("不能重复购买，userId：{}，voucherId：{}", order.getUserId(), order.getVoucherId());
+            }
+        }
+        if (unique.isEmpty()) {
+            return stored;
+        }
+
+        //5.扣减库存：每种优惠券一条 set stock = stock - k where voucher_id = ? and stock >= k
+        Map<Long, Integer> counts = new HashMap<>();
+        for (VoucherOrder voucherOrder : unique.values()) {
+            counts.merge(voucherOrder.getVoucherId(), 1, Integer::sum);
+        }
+        for (Map.Entry<Long, Integer> entry : counts.entrySet()) {
+            int k = entry.getValue();
+            boolean success = seckillVoucherService.update()
+                    .setSql("stock = stock - " + k)
+                    .eq("voucher_id", entry.getKey())
+                    .ge("stock", k)
+                    .update();
+            if (!success) {
+                //整批回滚，由调用方逐条处理
+                throw new IllegalStateException("库存不足，voucherId：" + entry.getKey() + "，需要：" + k);
+            }
+        }
+
+        //6.批量创建订单
+        getBaseMapper().insertBatch(new ArrayList<>(unique.values()));
+        stored.addAll(unique.values());
+        return stored;
     }
 }
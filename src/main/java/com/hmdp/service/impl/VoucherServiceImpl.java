@@ -7,15 +7,19 @@ import com.hmdp.mapper.VoucherMapper;
 import com.hmdp.entity.SeckillVoucher;
 import com.hmdp.service.ISeckillVoucherService;
 import com.hmdp.service.IVoucherService;
+import com.hmdp.utils.SeckillRateLimiter;
+import com.hmdp.utils.SeckillSoldOut;
+import com.hmdp.utils.SeckillStockShards;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.data.redis.core.StringRedisTemplate;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
 
 import javax.annotation.Resource;
 import java.util.List;
 
-import static com.hmdp.utils.RedisConstants.SECKILL_STOCK_KEY;
 
 /**
  * <p>
@@ -34,6 +38,15 @@ public class VoucherServiceImpl extends ServiceImpl<VoucherMapper, Voucher> impl
     @Autowired
     private StringRedisTemplate stringRedisTemplate;
 
+    @Autowired
+    private SeckillStockShards seckillStockShards;
+
+    @Autowired
+    private SeckillSoldOut seckillSoldOut;
+
+    @Autowired
+    private SeckillRateLimiter seckillRateLimiter;
+
     @Override
     public Result queryVoucherOfShop(Long shopId) {
         // 查询优惠券信息
@@ -55,7 +68,38 @@ public class VoucherServiceImpl extends ServiceImpl<VoucherMapper, Voucher> impl
         seckillVoucher.setEndTime(voucher.getEndTime());
         seckillVoucherService.save(seckillVoucher);
 
-        //[异步秒杀] 保存秒杀库存到redis中
-        stringRedisTemplate.opsForValue().set(SECKILL_STOCK_KEY+voucher.getId(), voucher.getStock().toString());
+        //[异步秒杀] 保存秒杀库存到redis中，指定了分片数时拆分到多个分片
+        int shards = voucher.getStockShards() == null ? 1 : voucher.getStockShards();
+        seckillStockShards.initStock(voucher.getId(), voucher.getStock(), shards);
+        //[异步秒杀] 保存秒杀时间到redis中，由lua脚本判断是否在秒杀时间内
+        seckillStockShards.initTimeWindow(voucher.getId(), voucher.getBeginTime(), voucher.getEndTime(), shards);
+        //[秒杀限流] 保存这张券的限流值，未指定时使用默认值
+        seckillRateLimiter.initLimit(voucher.getId(), voucher.getRateLimit(), voucher.getUserRateLimit());
+    }
+
+    @Override
+    @Transactional
+    public Result addSeckillStock(Long voucherId, Integer count) {
+        if (count == null || count <= 0) {
+            return Result.fail("补充的库存必须大于0");
+        }
+        // 更新数据库库存
+        boolean success = seckillVoucherService.update()
+                .setSql("stock = stock + " + count)
+                .eq("voucher_id", voucherId)
+                .update();
+        if (!success) {
+            return Result.fail("秒杀券不存在");
+        }
+        //[异步秒杀] 事务提交后再补充redis中的库存，并清除各节点的售罄标记；
+        //提交失败时redis中不会多出数据库中没有的库存
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+            @Override
+            public void afterCommit() {
+                seckillStockShards.addStock(voucherId, count);
+                seckillSoldOut.clear(voucherId);
+            }
+        });
+        return Result.ok();
     }
 }
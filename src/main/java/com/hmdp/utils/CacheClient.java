@@ -1,20 +1,22 @@
 package com.hmdp.utils;
 
-import cn.hutool.core.util.BooleanUtil;
-import cn.hutool.core.util.StrUtil;
-import cn.hutool.json.JSONObject;
-import cn.hutool.json.JSONUtil;
 import com.baomidou.mybatisplus.extension.api.R;
 import com.hmdp.entity.Shop;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.redis.core.RedisCallback;
 import org.springframework.data.redis.core.StringRedisTemplate;
 import org.springframework.stereotype.Component;
 
+import java.nio.charset.StandardCharsets;
 import java.time.LocalDateTime;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
+import java.time.ZoneId;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
 import java.util.concurrent.TimeUnit;
 import java.util.function.Function;
+import java.util.stream.Collectors;
 
 /**
  * @author wzy
@@ -24,116 +26,469 @@ import java.util.function.Function;
 @Slf4j
 public class CacheClient {
     private final StringRedisTemplate stringRedisTemplate;
+    private final LocalCache localCache;
+    private final IdBloomFilter idBloomFilter;
+    private final CacheSerializer cacheSerializer;
+    private final CacheMetrics cacheMetrics;
+    private final CacheRebuildExecutor cacheRebuildExecutor;
+    //重建缓存时的两级锁
+    private final RedisLockFactory redisLockFactory;
+    //提前刷新的激进程度，越大越早刷新
+    private final double earlyRefreshBeta;
+    //合并同一个key的并发加载/重建
+    private final SingleFlight singleFlight = new SingleFlight();
+    //key前缀 -> 布隆过滤器名
+    private final Map<String, String> bloomGuards = new ConcurrentHashMap<>();
 
-    public CacheClient(StringRedisTemplate stringRedisTemplate) {
+    public CacheClient(StringRedisTemplate stringRedisTemplate, LocalCache localCache, IdBloomFilter idBloomFilter,
+                       CacheSerializer cacheSerializer, CacheMetrics cacheMetrics,
+                       CacheRebuildExecutor cacheRebuildExecutor, RedisLockFactory redisLockFactory,
+                       @Value("${hmdp.cache.early-refresh.beta:1.0}") double earlyRefreshBeta) {
         this.stringRedisTemplate = stringRedisTemplate;
+        this.localCache = localCache;
+        this.idBloomFilter = idBloomFilter;
+        this.cacheSerializer = cacheSerializer;
+        this.cacheMetrics = cacheMetrics;
+        this.cacheRebuildExecutor = cacheRebuildExecutor;
+        this.redisLockFactory = redisLockFactory;
+        this.earlyRefreshBeta = earlyRefreshBeta;
     }
 
-    //方法1：将**任意**Java对象序列化为JSON，并存储到String类型的Key中，并可以设置TTL过期时间
+    /**
+     * 为某个key前缀开启布隆过滤器拦截：过滤器判定不存在的id直接返回null，不再查Redis和数据库，
+     * 过滤器可用时也不再缓存空值
+     */
+    public void enableBloomGuard(String keyPrefix, String filterName) {
+        bloomGuards.put(keyPrefix, filterName);
+    }
+
+    //返回true表示id一定不存在
+    private boolean rejectedByBloom(String keyPrefix, Object id) {
+        String filterName = bloomGuards.get(keyPrefix);
+        if (filterName != null && !idBloomFilter.mightContain(filterName, id)) {
+            cacheMetrics.request(keyPrefix, CacheMetrics.BLOOM_REJECTED);
+            return true;
+        }
+        return false;
+    }
+
+    //过滤器可用时由它负责拦截不存在的id，不再缓存空值
+    private boolean guardedByBloom(String keyPrefix) {
+        String filterName = bloomGuards.get(keyPrefix);
+        return filterName != null && idBloomFilter.isReady(filterName);
+    }
+
+    //[序列化]按key前缀选择的序列化方式可能是二进制，所以直接读写byte[]
+    private static byte[] rawKey(String key) {
+        return key.getBytes(StandardCharsets.UTF_8);
+    }
+
+    //[指标]以下几个方法顺便记录Redis GET、反序列化、查库的耗时
+    private byte[] rawGet(String keyPrefix, String key) {
+        long begin = System.nanoTime();
+        byte[] raw = stringRedisTemplate.execute((RedisCallback<byte[]>) connection -> connection.get(rawKey(key)));
+        cacheMetrics.time(CacheMetrics.REDIS_GET, keyPrefix, begin);
+        return raw;
+    }
+
+    private <R> R decode(String keyPrefix, byte[] raw, Class<R> type) {
+        long begin = System.nanoTime();
+        R r = cacheSerializer.decode(raw, type);
+        cacheMetrics.time(CacheMetrics.DESERIALIZE, keyPrefix, begin);
+        return r;
+    }
+
+    private RedisData decodeWithLogicalExpire(String keyPrefix, byte[] raw, Class<?> type) {
+        long begin = System.nanoTime();
+        RedisData redisData = cacheSerializer.decodeWithLogicalExpire(raw, type);
+        cacheMetrics.time(CacheMetrics.DESERIALIZE, keyPrefix, begin);
+        return redisData;
+    }
+
+    private <T, U> U fromDb(String keyPrefix, T arg, Function<T, U> dbFallback) {
+        long begin = System.nanoTime();
+        try {
+            return dbFallback.apply(arg);
+        } finally {
+            cacheMetrics.time(CacheMetrics.DB_FALLBACK, keyPrefix, begin);
+        }
+    }
+
+    private void rawSet(String key, byte[] value) {
+        stringRedisTemplate.execute((RedisCallback<Boolean>) connection -> connection.set(rawKey(key), value));
+    }
+
+    private void rawSet(String key, byte[] value, Long time, TimeUnit unit) {
+        stringRedisTemplate.execute((RedisCallback<Boolean>) connection ->
+                connection.pSetEx(rawKey(key), unit.toMillis(time), value));
+    }
+
+    //方法1：将**任意**Java对象序列化，并存储到String类型的Key中，并可以设置TTL过期时间
     public void set(String key, Object value, Long time, TimeUnit unit) {
-        stringRedisTemplate.opsForValue().set(key, JSONUtil.toJsonStr(value), time, unit);
+        rawSet(key, cacheSerializer.encode(key, value), time, unit);
+    }
+
+    //不设置过期时间
+    public void set(String key, Object value) {
+        rawSet(key, cacheSerializer.encode(key, value));
+    }
+
+    //查询列表类型的缓存，不存在返回null
+    public <R> List<R> getList(String key, Class<R> type) {
+        byte[] raw = rawGet(key, key);
+        if (raw == null || raw.length == 0) {
+            cacheMetrics.request(key, CacheMetrics.MISS);
+            return null;
+        }
+        cacheMetrics.request(key, CacheMetrics.HIT);
+        return cacheSerializer.decodeList(raw, type);
     }
 
     // 方法2：将任意Java对象序列化为JSON，并存储在String类型的Key中，并可以设置逻辑过期时间，用于处理缓存击穿问题
     public void setWithLogicalExpire(String key, Object value, Long time, TimeUnit unit) {
-        //设置逻辑过期
-        RedisData redisData = new RedisData();
-        redisData.setData(value);
-        redisData.setExpireTime(LocalDateTime.now().plusSeconds(unit.toSeconds(time)));
-        //写入redis
-        stringRedisTemplate.opsForValue().set(key, JSONUtil.toJsonStr(redisData));
+        //设置逻辑过期，并写入redis
+        LocalDateTime expireTime = LocalDateTime.now().plusSeconds(unit.toSeconds(time));
+        rawSet(key, cacheSerializer.encodeWithLogicalExpire(key, value, expireTime));
+        //[L1]其他节点的本地副本已过期，通知它们丢弃
+        localCache.invalidate(key);
+    }
+
+    /**
+     * 批量写入逻辑过期的缓存，用一个pipeline发送，供缓存预热使用。
+     * 不逐个广播本地缓存失效，其他节点的本地副本会在短时间内自然过期
+     *
+     * @param values key -> 缓存值
+     */
+    public void setWithLogicalExpire(Map<String, ?> values, Long time, TimeUnit unit) {
+        if (values == null || values.isEmpty()) {
+            return;
+        }
+        LocalDateTime expireTime = LocalDateTime.now().plusSeconds(unit.toSeconds(time));
+        //先在pipeline外完成序列化，pipeline内只负责发送
+        Map<byte[], byte[]> raws = new LinkedHashMap<>(values.size());
+        for (Map.Entry<String, ?> entry : values.entrySet()) {
+            raws.put(rawKey(entry.getKey()), cacheSerializer.encodeWithLogicalExpire(entry.getKey(), entry.getValue(), expireTime));
+        }
+        stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            raws.forEach(connection::set);
+            return null;
+        });
+        for (String key : values.keySet()) {
+            localCache.evict(key);
+        }
+    }
+
+    /**
+     * 批量写入缓存，用一个pipeline发送，写入的格式与mode对应的查询方式一致，供缓存预热使用
+     *
+     * @param values key -> 缓存值
+     */
+    public void setAll(CacheMode mode, Map<String, ?> values, Long time, TimeUnit unit) {
+        if (mode == CacheMode.LOGICAL_EXPIRE) {
+            setWithLogicalExpire(values, time, unit);
+            return;
+        }
+        if (values == null || values.isEmpty()) {
+            return;
+        }
+        LocalDateTime expireTime = LocalDateTime.now().plusSeconds(unit.toSeconds(time));
+        long millis = unit.toMillis(time);
+        Map<byte[], byte[]> raws = new LinkedHashMap<>(values.size());
+        for (Map.Entry<String, ?> entry : values.entrySet()) {
+            raws.put(rawKey(entry.getKey()), mode == CacheMode.EARLY_REFRESH
+                    //还没有重建耗时，按0处理，第一次重建后才有
+                    ? cacheSerializer.encodeWithEarlyRefresh(entry.getKey(), entry.getValue(), expireTime, 0L)
+                    : cacheSerializer.encode(entry.getKey(), entry.getValue()));
+        }
+        stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            raws.forEach((key, value) -> connection.pSetEx(key, millis, value));
+            return null;
+        });
+        for (String key : values.keySet()) {
+            localCache.evict(key);
+        }
+    }
+
+    //删除缓存，同时让所有节点的本地缓存失效
+    public void delete(String key) {
+        stringRedisTemplate.delete(key);
+        localCache.invalidate(key);
+    }
+
+    //按mode选择查询方式，与setAll写入的格式对应
+    public <R, ID> R query(CacheMode mode, String keyPrefix, ID id, Class<R> type, Function<ID, R> dbFallback, Long time, TimeUnit unit) {
+        switch (mode) {
+            case LOGICAL_EXPIRE:
+                return queryWithLogicalExpire(keyPrefix, id, type, dbFallback, time, unit);
+            case EARLY_REFRESH:
+                return queryWithEarlyRefresh(keyPrefix, id, type, dbFallback, time, unit);
+            default:
+                return queryWithPassThrough(keyPrefix, id, type, dbFallback, time, unit);
+        }
     }
 
     // 方法3：根据指定的Key查询缓存，并反序列化为指定类型，利用**缓存空值**的方式解决**缓存穿透**问题
     public <R, ID> R queryWithPassThrough(String keyPrefix, ID id, Class<R> type, Function<ID, R> dbFallback, Long time, TimeUnit unit) {
-        //1.从Redis中查询商铺缓存
         String key = keyPrefix + id;
-        String json = stringRedisTemplate.opsForValue().get(key);
+        //[L1]先查本地缓存，命中则省去Redis往返和反序列化
+        R local = localCache.get(key);
+        if (local != null) {
+            cacheMetrics.request(keyPrefix, CacheMetrics.LOCAL_HIT);
+            return local;
+        }
+        //[布隆过滤器]本地未命中再判断，一定不存在的id直接返回
+        if (rejectedByBloom(keyPrefix, id)) {
+            return null;
+        }
+        //1.从Redis中查询商铺缓存
+        byte[] raw = rawGet(keyPrefix, key);
         //2.判断是否存在
-        if (StrUtil.isNotBlank(json)) { //isNotBlank中如果是null、""都会返回false
+        if (raw != null && raw.length > 0) {
             //3.存在，直接返回
-            return JSONUtil.toBean(json, type);
+            cacheMetrics.request(keyPrefix, CacheMetrics.HIT);
+            R r = decode(keyPrefix, raw, type);
+            localCache.put(key, r);
+            return r;
         }
 
         //[new]判断命中的是否为空值。
-        if (json != null) {
+        if (raw != null) {
+            cacheMetrics.request(keyPrefix, CacheMetrics.NULL_HIT);
             return null;
         }
 
-        //4.不存在，根据id查询数据库
-        R r = dbFallback.apply(id);
+        //[single-flight]同一个key在本节点只有一个线程去查数据库，其余线程等待同一个结果
+        cacheMetrics.request(keyPrefix, CacheMetrics.MISS);
+        return singleFlight.execute(key, () -> {
+            //4.不存在，根据id查询数据库
+            R r = fromDb(keyPrefix, id, dbFallback);
 
-        //5.不存在，返回错误
-        if (r == null) {
-            //[new]将空值写入redis
-            stringRedisTemplate.opsForValue().set(key, "", RedisConstants.CACHE_NULL_TTL, TimeUnit.MINUTES);
-            return null;
-        }
-        //6.存在，写入Redis
-        this.set(key, r, time, unit);
-        //7.返回
-        return r;
+            //5.不存在，返回错误
+            if (r == null) {
+                //[new]将空值写入redis(有布隆过滤器兜底时不再写入，避免大量垃圾key)
+                if (!guardedByBloom(keyPrefix)) {
+                    stringRedisTemplate.opsForValue().set(key, "", RedisConstants.CACHE_NULL_TTL, TimeUnit.MINUTES);
+                }
+                return null;
+            }
+            //6.存在，写入Redis
+            this.set(key, r, time, unit);
+            localCache.put(key, r);
+            //7.返回
+            return r;
+        });
     }
 
-    // 方法4：根据指定的Key查询缓存，并反序列化为指定类型，需要利用**逻辑过期**解决**缓存击穿**问题
-    //这里需要声明一个线程池，因为下面需要新建一个现成来完成重构缓存
-    private static final ExecutorService CACHE_REBUILD_EXECUTOR = Executors.newFixedThreadPool(10);
+    // 方法5：批量查询，一次MGET查缓存，未命中的id一次性交给dbFallback查库，再用pipeline批量回写，结果保持调用方传入的顺序
+    public <R, ID> List<R> queryBatch(String keyPrefix, Collection<ID> ids, Class<R> type,
+                                      Function<Collection<ID>, Map<ID, R>> dbFallback, Long time, TimeUnit unit) {
+        if (ids == null || ids.isEmpty()) {
+            return Collections.emptyList();
+        }
+        //去重，同时保留原始顺序
+        Map<ID, R> found = new HashMap<>(ids.size());
+        List<ID> toQuery = new ArrayList<>(ids.size());
+        for (ID id : new LinkedHashSet<>(ids)) {
+            //[L1]本地缓存命中的不用再查Redis
+            R local = localCache.get(keyPrefix + id);
+            if (local != null) {
+                cacheMetrics.request(keyPrefix, CacheMetrics.LOCAL_HIT);
+                found.put(id, local);
+            } else if (!rejectedByBloom(keyPrefix, id)) {
+                //[布隆过滤器]一定不存在的id直接跳过
+                toQuery.add(id);
+            }
+        }
 
-    //[缓存击穿-互斥锁]：获取锁
-    private boolean tryLock(String key) {
-        Boolean flag = stringRedisTemplate.opsForValue().setIfAbsent(key, "1", 10, TimeUnit.SECONDS);
-        //避免返回值为null，我们这里使用了BooleanUtil工具类
-        return BooleanUtil.isTrue(flag);
-    }
+        //1.一次MGET查询Redis
+        List<ID> misses = new ArrayList<>();
+        if (!toQuery.isEmpty()) {
+            List<String> keys = toQuery.stream().map(id -> keyPrefix + id).collect(Collectors.toList());
+            byte[][] rawKeys = keys.stream().map(CacheClient::rawKey).toArray(byte[][]::new);
+            long begin = System.nanoTime();
+            List<byte[]> raws = stringRedisTemplate.execute((RedisCallback<List<byte[]>>) connection -> connection.mGet(rawKeys));
+            cacheMetrics.time(CacheMetrics.REDIS_GET, keyPrefix, begin);
+            int hits = 0;
+            int nullHits = 0;
+            for (int i = 0; i < toQuery.size(); i++) {
+                ID id = toQuery.get(i);
+                byte[] raw = raws == null ? null : raws.get(i);
+                if (raw != null && raw.length > 0) {
+                    //2.命中，反序列化
+                    hits++;
+                    R r = decode(keyPrefix, raw, type);
+                    localCache.put(keys.get(i), r);
+                    found.put(id, r);
+                } else if (raw == null) {
+                    //3.未命中(""表示命中了空值，不需要再查库)
+                    misses.add(id);
+                } else {
+                    nullHits++;
+                }
+            }
+            cacheMetrics.request(keyPrefix, CacheMetrics.HIT, hits);
+            cacheMetrics.request(keyPrefix, CacheMetrics.NULL_HIT, nullHits);
+            cacheMetrics.request(keyPrefix, CacheMetrics.MISS, misses.size());
+        }
 
-    //[缓存击穿-互斥锁]：释放锁
-    private void unlock(String key) {
-        stringRedisTemplate.delete(key);
+        //4.未命中的id一次性查询数据库，并用pipeline批量写回Redis
+        if (!misses.isEmpty()) {
+            Map<ID, R> loaded = fromDb(keyPrefix, misses, dbFallback);
+            Map<ID, R> dbValues = loaded == null ? Collections.emptyMap() : loaded;
+            boolean cacheNull = !guardedByBloom(keyPrefix);
+            long millis = unit.toMillis(time);
+            long nullMillis = TimeUnit.MINUTES.toMillis(RedisConstants.CACHE_NULL_TTL);
+            stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+                for (ID id : misses) {
+                    String key = keyPrefix + id;
+                    R r = dbValues.get(id);
+                    if (r != null) {
+                        connection.pSetEx(rawKey(key), millis, cacheSerializer.encode(key, r));
+                    } else if (cacheNull) {
+                        connection.pSetEx(rawKey(key), nullMillis, new byte[0]);
+                    }
+                }
+                return null;
+            });
+            found.putAll(dbValues);
+        }
+
+        //5.按调用方的顺序组装结果，不存在的id不返回
+        List<R> result = new ArrayList<>(found.size());
+        for (ID id : new LinkedHashSet<>(ids)) {
+            R r = found.get(id);
+            if (r != null) {
+                result.add(r);
+            }
+        }
+        return result;
     }
 
+    // 方法4：根据指定的Key查询缓存，并反序列化为指定类型，需要利用**逻辑过期**解决**缓存击穿**问题
+    //重建缓存使用共享的CacheRebuildExecutor，不再单独声明线程池
+
     public <R, ID> R queryWithLogicalExpire(String keyPrefix, ID id, Class<R> type, Function<ID, R> dbFallback, Long time, TimeUnit unit){
-        //1.从Redis中查询商铺缓存
         String key = keyPrefix + id;
-        String json = stringRedisTemplate.opsForValue().get(key);
-        //2.判断是否存在
-        if (StrUtil.isBlank(json)){
-            //不存在直接返回null
-            return null;
+        //[L1]本地缓存中保存的是已反序列化好的RedisData，仍然按逻辑过期时间判断
+        RedisData redisData = localCache.get(key);
+        boolean fromLocal = redisData != null;
+        if (redisData == null) {
+            //[布隆过滤器]本地未命中再判断，一定不存在的id直接返回
+            if (rejectedByBloom(keyPrefix, id)) {
+                return null;
+            }
+            //1.从Redis中查询商铺缓存
+            byte[] raw = rawGet(keyPrefix, key);
+            //2.判断是否存在
+            if (raw == null || raw.length == 0){
+                //不存在直接返回null
+                cacheMetrics.request(keyPrefix, CacheMetrics.MISS);
+                return null;
+            }
+            //3.命中，反序列化为对象(新格式的过期时间在头部，只需解析一次)
+            redisData = decodeWithLogicalExpire(keyPrefix, raw, type);
+            localCache.put(key, redisData);
         }
-        //3.命中，将json反序列化为对象
-        RedisData redisData = JSONUtil.toBean(json, RedisData.class);
-        R r = JSONUtil.toBean((JSONObject) redisData.getData(), type);
+        @SuppressWarnings("unchecked")
+        R r = (R) redisData.getData();
         //4.判断是否过期
         if (LocalDateTime.now().isBefore(redisData.getExpireTime())){
             //4.1如果未过期则直接返回数据
+            cacheMetrics.request(keyPrefix, fromLocal ? CacheMetrics.LOCAL_HIT : CacheMetrics.HIT);
             return r;
         }
 
-        //4.2 过期，则需要缓存重建
-        //5.缓存重建
-        //5.1 获取互斥锁
-        String lockKey = RedisConstants.LOCK_SHOP_KEY + id;
-        boolean isLock = tryLock(lockKey);
-        //5.2 判断是否获取锁成功
-        if (isLock){
-            //成功则开启独立线程，并返回旧的店铺信息
-            CACHE_REBUILD_EXECUTOR.submit(()->{
-                try {
-                    //重建缓存:查询数据库
-                    R r1 = dbFallback.apply(id);
-                    //重建缓存:写入Redis
-                    this.setWithLogicalExpire(key, r1, time, unit);
-                } catch (Exception e) {
-                    throw new RuntimeException(e);
-                } finally {
-                    //释放锁
-                    unlock(lockKey);
-                }
-            });
-            //直接返回商铺信息
-            return r;
+        //4.2 过期，则需要缓存重建，先返回旧数据
+        cacheMetrics.request(keyPrefix, CacheMetrics.STALE);
+        //5.缓存重建：交给共享的重建线程池，本节点同一个key只会提交一次，队列满了也直接返回旧数据
+        cacheRebuildExecutor.submit(keyPrefix, key, () -> {
+            //5.1 获取互斥锁lock:缓存key(在重建线程中获取，提交失败时不会占着锁)，本节点内先抢本地锁
+            ILock lock = redisLockFactory.getHybridLock(key);
+            //5.2 判断是否获取锁成功，失败说明其他节点正在重建
+            if (!lock.tryLock(RedisConstants.LOCK_SHOP_TTL)) {
+                cacheMetrics.rebuild(keyPrefix, CacheMetrics.REBUILD_SKIPPED);
+                return;
+            }
+            try {
+                //重建缓存:查询数据库
+                R r1 = fromDb(keyPrefix, id, dbFallback);
+                //重建缓存:写入Redis
+                this.setWithLogicalExpire(key, r1, time, unit);
+            } finally {
+                //释放锁
+                lock.unlock();
+            }
+        });
+        //直接返回商铺信息
+        return r;
+    }
+
+
+    // 方法6：提前刷新(XFetch)。缓存中同时保存重建耗时delta，越接近过期、重建越慢，读到的请求越有可能
+    // 提前触发异步刷新(概率为 now - delta * beta * ln(rand) >= expire)，热点key几乎不会真正过期
+    public <R, ID> R queryWithEarlyRefresh(String keyPrefix, ID id, Class<R> type, Function<ID, R> dbFallback, Long time, TimeUnit unit) {
+        String key = keyPrefix + id;
+        //[L1]本地缓存中保存的是已反序列化好的RedisData
+        RedisData redisData = localCache.get(key);
+        if (redisData != null) {
+            cacheMetrics.request(keyPrefix, CacheMetrics.LOCAL_HIT);
+        } else {
+            //[布隆过滤器]本地未命中再判断，一定不存在的id直接返回
+            if (rejectedByBloom(keyPrefix, id)) {
+                return null;
+            }
+            //1.从Redis中查询
+            byte[] raw = rawGet(keyPrefix, key);
+            //2.命中空值
+            if (raw != null && raw.length == 0) {
+                cacheMetrics.request(keyPrefix, CacheMetrics.NULL_HIT);
+                return null;
+            }
+            //3.未命中(第一次访问或者真的过期了)，同步加载
+            if (raw == null) {
+                cacheMetrics.request(keyPrefix, CacheMetrics.MISS);
+                return singleFlight.execute(key, () -> loadWithDelta(keyPrefix, id, dbFallback, time, unit));
+            }
+            cacheMetrics.request(keyPrefix, CacheMetrics.HIT);
+            redisData = decodeWithLogicalExpire(keyPrefix, raw, type);
+            localCache.put(key, redisData);
+        }
+        @SuppressWarnings("unchecked")
+        R r = (R) redisData.getData();
+        //4.按概率判断是否需要提前刷新
+        if (shouldRefreshEarly(redisData) && !singleFlight.isInFlight(key)) {
+            cacheRebuildExecutor.submit(keyPrefix, key,
+                    () -> singleFlight.execute(key, () -> loadWithDelta(keyPrefix, id, dbFallback, time, unit)));
+        }
+        return r;
+    }
+
+    private boolean shouldRefreshEarly(RedisData redisData) {
+        long expireAt = redisData.getExpireTime().atZone(ZoneId.systemDefault()).toInstant().toEpochMilli();
+        long delta = redisData.getDelta() == null ? 0L : redisData.getDelta();
+        //ln(rand)为负数，所以这里是在当前时间上加一个随机的提前量
+        double gap = -delta * earlyRefreshBeta * Math.log(ThreadLocalRandom.current().nextDouble());
+        return System.currentTimeMillis() + gap >= expireAt;
+    }
+
+    //查询数据库，记录耗时，连同过期时间一起写入Redis
+    private <R, ID> R loadWithDelta(String keyPrefix, ID id, Function<ID, R> dbFallback, Long time, TimeUnit unit) {
+        String key = keyPrefix + id;
+        long begin = System.currentTimeMillis();
+        R r = fromDb(keyPrefix, id, dbFallback);
+        long delta = System.currentTimeMillis() - begin;
+        if (r == null) {
+            if (!guardedByBloom(keyPrefix)) {
+                stringRedisTemplate.opsForValue().set(key, "", RedisConstants.CACHE_NULL_TTL, TimeUnit.MINUTES);
+            }
+            localCache.invalidate(key);
+            return null;
         }
-        //未获取到锁，直接返回商铺信息
+        //物理过期时间与逻辑过期时间一致，真正过期后由下一次读取同步加载
+        LocalDateTime expireTime = LocalDateTime.now().plusSeconds(unit.toSeconds(time));
+        rawSet(key, cacheSerializer.encodeWithEarlyRefresh(key, r, expireTime, delta), time, unit);
+        //其他节点的本地副本已经不是最新的了
+        localCache.invalidate(key);
         return r;
     }
 
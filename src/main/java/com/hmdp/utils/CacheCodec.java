@@ -0,0 +1,28 @@
+package com.hmdp.utils;
+
+import java.util.List;
+
+/**
+ * 缓存值的序列化方式。
+ * <p>
+ * 每种实现有一个唯一的id，写入Redis时记录在值的头部({@link CacheSerializer})，
+ * 读取时按头部选择对应的实现，因此切换某个key前缀的序列化方式不影响已经写入的旧值。
+ */
+public interface CacheCodec {
+
+    /**
+     * 序列化方式的唯一标识，写入值的头部
+     */
+    byte id();
+
+    /**
+     * 配置中使用的名字
+     */
+    String name();
+
+    byte[] encode(Object value);
+
+    <T> T decode(byte[] bytes, int offset, int length, Class<T> type);
+
+    <T> List<T> decodeList(byte[] bytes, int offset, int length, Class<T> type);
+}
@@ -0,0 +1,179 @@
+package com.hmdp.utils;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * 实体更新后的缓存失效(先更新数据库，再删除缓存)。
+ * <p>
+ * 在事务中调用时，等事务提交后才把key放入队列，避免提交前删除缓存、读请求又把旧数据写回；
+ * 后台线程把队列中的key合并去重后用一次UNLINK批量删除，同时通知各节点丢弃本地缓存。
+ * 每个key在第一次删除后还会延迟再删一次(延迟双删)，覆盖提交前已经读到旧数据、在删除之后才写回缓存的请求。
+ * <p>
+ * 店铺、笔记、店铺类型、优惠券等任何实体的更新都可以使用：
+ * <pre>
+ * cacheInvalidator.invalidate(RedisConstants.CACHE_SHOP_KEY + id);
+ * </pre>
+ */
+@Slf4j
+@Component
+public class CacheInvalidator {
+
+    private final StringRedisTemplate stringRedisTemplate;
+    private final LocalCache localCache;
+    private final int batchSize;
+    private final long lingerMillis;
+    private final long secondDeleteDelayMillis;
+
+    private final BlockingQueue<Invalidation> queue;
+    private final ScheduledExecutorService delayScheduler;
+    private volatile Thread worker;
+    private volatile boolean running = true;
+
+    public CacheInvalidator(StringRedisTemplate stringRedisTemplate, LocalCache localCache,
+                            @Value("${hmdp.cache.invalidate.queue-capacity:10000}") int queueCapacity,
+                            @Value("${hmdp.cache.invalidate.batch-size:100}") int batchSize,
+                            @Value("${hmdp.cache.invalidate.linger-millis:5}") long lingerMillis,
+                            @Value("${hmdp.cache.invalidate.second-delete-delay-millis:500}") long secondDeleteDelayMillis) {
+        this.stringRedisTemplate = stringRedisTemplate;
+        this.localCache = localCache;
+        this.batchSize = batchSize;
+        this.lingerMillis = lingerMillis;
+        this.secondDeleteDelayMillis = secondDeleteDelayMillis;
+        this.queue = new LinkedBlockingQueue<>(queueCapacity);
+        this.delayScheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "cache-invalidate-delay");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    @PostConstruct
+    private void init() {
+        worker = new Thread(this::drainLoop, "cache-invalidate");
+        worker.setDaemon(true);
+        worker.start();
+    }
+
+    /**
+     * 删除缓存。在事务中调用时会在事务提交后才执行，事务回滚则不删除
+     */
+    public void invalidate(String... keys) {
+        invalidate(Arrays.asList(keys));
+    }
+
+    public void invalidate(Collection<String> keys) {
+        if (keys.isEmpty()) {
+            return;
+        }
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            List<String> copy = new ArrayList<>(keys);
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCommit() {
+                    enqueue(copy, false);
+                }
+            });
+            return;
+        }
+        enqueue(keys, false);
+    }
+
+    private void enqueue(Collection<String> keys, boolean second) {
+        List<String> overflow = null;
+        for (String key : keys) {
+            if (!queue.offer(new Invalidation(key, second))) {
+                if (overflow == null) {
+                    overflow = new ArrayList<>();
+                }
+                overflow.add(key);
+            }
+        }
+        if (overflow != null) {
+            //队列已满，在调用线程中直接删除，保证不丢失
+            log.warn("缓存失效队列已满，同步删除{}个key", overflow.size());
+            delete(overflow, second);
+        }
+    }
+
+    private void drainLoop() {
+        List<Invalidation> batch = new ArrayList<>(batchSize);
+        while (running || !queue.isEmpty()) {
+            try {
+                //1.阻塞等待第一个key
+                Invalidation first = queue.poll(1, TimeUnit.SECONDS);
+                if (first == null) {
+                    continue;
+                }
+                batch.add(first);
+                //2.稍等片刻，让同一时刻的其他更新一起合并
+                if (lingerMillis > 0 && queue.size() < batchSize) {
+                    Thread.sleep(lingerMillis);
+                }
+                queue.drainTo(batch, batchSize - 1);
+                //3.合并去重，区分第一次删除和延迟的第二次删除
+                Set<String> firstKeys = new LinkedHashSet<>();
+                Set<String> secondKeys = new LinkedHashSet<>();
+                for (Invalidation invalidation : batch) {
+                    (invalidation.second ? secondKeys : firstKeys).add(invalidation.key);
+                }
+                secondKeys.removeAll(firstKeys);
+                delete(firstKeys, false);
+                delete(secondKeys, true);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            } catch (Exception e) {
+                log.error("批量删除缓存失败，key：{}", batch, e);
+            } finally {
+                batch.clear();
+            }
+        }
+    }
+
+    private void delete(Collection<String> keys, boolean second) {
+        if (keys.isEmpty()) {
+            return;
+        }
+        //UNLINK在Redis后台线程中释放内存，不阻塞Redis主线程
+        byte[][] rawKeys = keys.stream().map(k -> k.getBytes(StandardCharsets.UTF_8)).toArray(byte[][]::new);
+        stringRedisTemplate.execute((RedisCallback<Long>) connection -> connection.unlink(rawKeys));
+        //整批本地缓存失效只广播一条消息
+        localCache.invalidateAll(keys);
+        if (!second && secondDeleteDelayMillis > 0 && !delayScheduler.isShutdown()) {
+            List<String> copy = new ArrayList<>(keys);
+            delayScheduler.schedule(() -> enqueue(copy, true), secondDeleteDelayMillis, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    @PreDestroy
+    public void shutdown() throws InterruptedException {
+        //先让已计划的延迟删除执行完，再停止批量删除线程
+        delayScheduler.shutdown();
+        delayScheduler.awaitTermination(secondDeleteDelayMillis + 1000, TimeUnit.MILLISECONDS);
+        //不中断工作线程，等它把队列中剩余的key删完后自己退出
+        running = false;
+        worker.join(TimeUnit.SECONDS.toMillis(5));
+    }
+
+    private static class Invalidation {
+        private final String key;
+        private final boolean second;
+
+        private Invalidation(String key, boolean second) {
+            this.key = key;
+            this.second = second;
+        }
+    }
+}
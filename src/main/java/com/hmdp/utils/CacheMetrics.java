@@ -0,0 +1,90 @@
+package com.hmdp.utils;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.springframework.stereotype.Component;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * CacheClient的指标，按key前缀打标签，通过/actuator/prometheus采集：
+ * <ul>
+ *     <li>hmdp.cache.requests：result = local_hit / hit / null_hit / miss / stale / bloom_rejected</li>
+ *     <li>hmdp.cache.rebuilds：outcome = started / skipped / failed / rejected</li>
+ *     <li>hmdp.cache.redis.get、hmdp.cache.deserialize、hmdp.cache.db.fallback：耗时</li>
+ *     <li>hmdp.cache.rebuild.queue / active / in-flight：重建线程池状态，见{@link CacheRebuildExecutor}</li>
+ * </ul>
+ */
+@Component
+public class CacheMetrics {
+
+    public static final String LOCAL_HIT = "local_hit";
+    public static final String HIT = "hit";
+    public static final String NULL_HIT = "null_hit";
+    public static final String MISS = "miss";
+    public static final String STALE = "stale";
+    public static final String BLOOM_REJECTED = "bloom_rejected";
+
+    public static final String REBUILD_STARTED = "started";
+    public static final String REBUILD_SKIPPED = "skipped";
+    public static final String REBUILD_FAILED = "failed";
+    public static final String REBUILD_REJECTED = "rejected";
+
+    public static final String REDIS_GET = "hmdp.cache.redis.get";
+    public static final String DESERIALIZE = "hmdp.cache.deserialize";
+    public static final String DB_FALLBACK = "hmdp.cache.db.fallback";
+
+    private final MeterRegistry registry;
+    //Micrometer每次按名字+标签查找都要创建对象，这里自己缓存一份
+    private final Map<String, Counter> counters = new ConcurrentHashMap<>();
+    private final Map<String, Timer> timers = new ConcurrentHashMap<>();
+
+    public CacheMetrics(MeterRegistry registry) {
+        this.registry = registry;
+    }
+
+    public MeterRegistry getRegistry() {
+        return registry;
+    }
+
+    /**
+     * 记录一次查询结果
+     */
+    public void request(String keyPrefix, String result) {
+        counters.computeIfAbsent("requests|" + keyPrefix + "|" + result,
+                k -> registry.counter("hmdp.cache.requests", "prefix", keyPrefix, "result", result))
+                .increment();
+    }
+
+    public void request(String keyPrefix, String result, int amount) {
+        if (amount > 0) {
+            counters.computeIfAbsent("requests|" + keyPrefix + "|" + result,
+                    k -> registry.counter("hmdp.cache.requests", "prefix", keyPrefix, "result", result))
+                    .increment(amount);
+        }
+    }
+
+    /**
+     * 记录一次缓存重建
+     */
+    public void rebuild(String keyPrefix, String outcome) {
+        counters.computeIfAbsent("rebuilds|" + keyPrefix + "|" + outcome,
+                k -> registry.counter("hmdp.cache.rebuilds", "prefix", keyPrefix, "outcome", outcome))
+                .increment();
+    }
+
+    /**
+     * 记录耗时
+     *
+     * @param name      {@link #REDIS_GET}、{@link #DESERIALIZE}、{@link #DB_FALLBACK}
+     * @param beginNano 开始时间，System.nanoTime()
+     */
+    public void time(String name, String keyPrefix, long beginNano) {
+        timers.computeIfAbsent(name + "|" + keyPrefix,
+                k -> Timer.builder(name).tag("prefix", keyPrefix).publishPercentileHistogram().register(registry))
+                .record(System.nanoTime() - beginNano, TimeUnit.NANOSECONDS);
+    }
+}
@@ -0,0 +1,27 @@
+package com.hmdp.utils;
+
+/**
+ * 缓存的读写方式。同一个key前缀的查询({@link CacheClient#query})和缓存预热({@link CacheClient#setAll})
+ * 必须使用相同的方式，否则写入的格式与读取时期望的不一致。
+ */
+public enum CacheMode {
+    /**
+     * 普通值 + 过期时间，未命中时查库，缓存空值(queryWithPassThrough)
+     */
+    PASS_THROUGH,
+    /**
+     * 逻辑过期，不设置过期时间，过期后异步重建(queryWithLogicalExpire)，需要提前预热
+     */
+    LOGICAL_EXPIRE,
+    /**
+     * 逻辑过期 + 重建耗时，过期前概率性地提前刷新(queryWithEarlyRefresh)
+     */
+    EARLY_REFRESH;
+
+    /**
+     * 解析配置中的名字，例如pass-through、logical-expire、early-refresh
+     */
+    public static CacheMode of(String name) {
+        return valueOf(name.trim().toUpperCase().replace('-', '_'));
+    }
+}
@@ -0,0 +1,13 @@
+package com.hmdp.utils;
+
+/**
+ * 等待缓存重建超时，并且没有可以返回的旧数据。
+ * <p>
+ * 此时不再让每个等待者各自查询数据库(会把重建要保护的数据库压垮)，而是让调用方稍后重试
+ */
+public class CacheRebuildBusyException extends RuntimeException {
+
+    public CacheRebuildBusyException(String key) {
+        super("缓存重建中：" + key);
+    }
+}
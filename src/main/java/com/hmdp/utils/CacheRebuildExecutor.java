@@ -0,0 +1,103 @@
+package com.hmdp.utils;
+
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PreDestroy;
+import java.util.Set;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 全局共享的缓存异步重建线程池。
+ * <p>
+ * 队列有界，放不下时直接拒绝，调用方继续返回旧数据；同一个key同一时刻只允许一个重建任务
+ * 排队或执行，避免大量请求同时发现过期时把同一个key重复提交。任务的异常会被记录并计数，
+ * 不会被submit吞掉。应用关闭时等待正在执行的任务完成。
+ */
+@Slf4j
+@Component
+public class CacheRebuildExecutor {
+
+    private final ThreadPoolExecutor executor;
+    private final CacheMetrics cacheMetrics;
+    private final long shutdownTimeoutSeconds;
+    //排队或执行中的key
+    private final Set<String> inFlight = ConcurrentHashMap.newKeySet();
+
+    public CacheRebuildExecutor(CacheMetrics cacheMetrics,
+                                @Value("${hmdp.cache.rebuild.pool-size:10}") int poolSize,
+                                @Value("${hmdp.cache.rebuild.queue-capacity:1000}") int queueCapacity,
+                                @Value("${hmdp.cache.rebuild.shutdown-timeout-seconds:10}") long shutdownTimeoutSeconds) {
+        this.cacheMetrics = cacheMetrics;
+        this.shutdownTimeoutSeconds = shutdownTimeoutSeconds;
+        AtomicInteger threadNumber = new AtomicInteger();
+        this.executor = new ThreadPoolExecutor(poolSize, poolSize, 0L, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(queueCapacity),
+                r -> new Thread(r, "cache-rebuild-" + threadNumber.incrementAndGet()),
+                new ThreadPoolExecutor.AbortPolicy());
+
+        MeterRegistry registry = cacheMetrics.getRegistry();
+        Gauge.builder("hmdp.cache.rebuild.queue", executor, e -> e.getQueue().size()).register(registry);
+        Gauge.builder("hmdp.cache.rebuild.active", executor, ThreadPoolExecutor::getActiveCount).register(registry);
+        Gauge.builder("hmdp.cache.rebuild.in-flight", inFlight, Set::size).register(registry);
+    }
+
+    /**
+     * 提交一个重建任务
+     *
+     * @param keyPrefix 缓存key前缀，用于指标
+     * @param key       缓存key，同一个key同时只会有一个任务
+     * @param task      重建逻辑
+     * @return 是否提交成功。返回false表示该key已经在重建或者线程池已满，调用方应继续使用旧数据
+     */
+    public boolean submit(String keyPrefix, String key, Runnable task) {
+        if (!inFlight.add(key)) {
+            cacheMetrics.rebuild(keyPrefix, CacheMetrics.REBUILD_SKIPPED);
+            return false;
+        }
+        try {
+            executor.execute(() -> {
+                try {
+                    task.run();
+                } catch (Exception e) {
+                    cacheMetrics.rebuild(keyPrefix, CacheMetrics.REBUILD_FAILED);
+                    log.error("缓存重建失败，key：{}", key, e);
+                } finally {
+                    inFlight.remove(key);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            inFlight.remove(key);
+            cacheMetrics.rebuild(keyPrefix, CacheMetrics.REBUILD_REJECTED);
+            log.warn("缓存重建队列已满，继续使用旧数据，key：{}", key);
+            return false;
+        }
+        cacheMetrics.rebuild(keyPrefix, CacheMetrics.REBUILD_STARTED);
+        return true;
+    }
+
+    /**
+     * 判断某个key是否正在排队或重建
+     */
+    public boolean isInFlight(String key) {
+        return inFlight.contains(key);
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        executor.shutdown();
+        try {
+            if (!executor.awaitTermination(shutdownTimeoutSeconds, TimeUnit.SECONDS)) {
+                log.warn("缓存重建线程池未能在{}秒内结束，剩余任务将被丢弃", shutdownTimeoutSeconds);
+                executor.shutdownNow();
+            }
+        } catch (InterruptedException e) {
+            executor.shutdownNow();
+            Thread.currentThread().interrupt();
+        }
+    }
+}
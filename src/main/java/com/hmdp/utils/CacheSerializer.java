@@ -0,0 +1,201 @@
+package com.hmdp.utils;
+
+import cn.hutool.json.JSONObject;
+import cn.hutool.json.JSONUtil;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 缓存值的编解码，按key前缀选择{@link CacheCodec}。
+ * <p>
+ * 除Hutool写入的普通值和逻辑过期值外，其他值都带一个头部：
+ * <pre>
+ * [0x00][codec id][flags][逻辑过期时间(8字节毫秒时间戳，flags含逻辑过期时才有)][重建耗时(4字节毫秒，flags含重建耗时才有)][数据]
+ * </pre>
+ * JSON文本不会以0x00开头，因此不带头部的值一律按旧格式(Hutool JSON / RedisData)解析，
+ * 已经在Redis中的数据不需要迁移。逻辑过期时间放在头部，读取时只需解析一次数据。
+ * <p>
+ * 配置示例：
+ * <pre>
+ * hmdp.cache.codec.default-codec: hutool
+ * hmdp.cache.codec.prefixes."[cache:shop:]": smile
+ * </pre>
+ */
+@Component
+@ConfigurationProperties(prefix = "hmdp.cache.codec")
+public class CacheSerializer {
+
+    private static final byte MAGIC = 0x00;
+    private static final int FLAG_LOGICAL_EXPIRE = 1;
+    private static final int FLAG_DELTA = 2;
+    private static final int HEADER_LENGTH = 3;
+
+    private final Map<String, CacheCodec> codecsByName = new HashMap<>();
+    private final CacheCodec[] codecsById = new CacheCodec[128];
+
+    //默认的序列化方式
+    private String defaultCodec = "hutool";
+    //key前缀 -> 序列化方式
+    private Map<String, String> prefixes = new HashMap<>();
+
+    public CacheSerializer() {
+        register(new HutoolJsonCodec());
+        register(JacksonCacheCodec.json());
+        register(JacksonCacheCodec.smile());
+    }
+
+    private void register(CacheCodec codec) {
+        codecsByName.put(codec.name(), codec);
+        codecsById[codec.id()] = codec;
+    }
+
+    public void setDefaultCodec(String defaultCodec) {
+        this.defaultCodec = defaultCodec;
+    }
+
+    public void setPrefixes(Map<String, String> prefixes) {
+        this.prefixes = prefixes;
+    }
+
+    /**
+     * 按最长前缀匹配选择写入时使用的序列化方式
+     */
+    public CacheCodec codecFor(String key) {
+        String name = defaultCodec;
+        int matched = -1;
+        for (Map.Entry<String, String> entry : prefixes.entrySet()) {
+            String prefix = entry.getKey();
+            if (key.startsWith(prefix) && prefix.length() > matched) {
+                matched = prefix.length();
+                name = entry.getValue();
+            }
+        }
+        CacheCodec codec = codecsByName.get(name);
+        if (codec == null) {
+            throw new IllegalStateException("未知的缓存序列化方式：" + name);
+        }
+        return codec;
+    }
+
+    public byte[] encode(String key, Object value) {
+        CacheCodec codec = codecFor(key);
+        if (codec.id() == HutoolJsonCodec.ID) {
+            return codec.encode(value);
+        }
+        byte[] data = codec.encode(value);
+        return ByteBuffer.allocate(HEADER_LENGTH + data.length)
+                .put(MAGIC).put(codec.id()).put((byte) 0)
+                .put(data)
+                .array();
+    }
+
+    public byte[] encodeWithLogicalExpire(String key, Object value, LocalDateTime expireTime) {
+        CacheCodec codec = codecFor(key);
+        if (codec.id() == HutoolJsonCodec.ID) {
+            RedisData redisData = new RedisData();
+            redisData.setData(value);
+            redisData.setExpireTime(expireTime);
+            return codec.encode(redisData);
+        }
+        byte[] data = codec.encode(value);
+        return ByteBuffer.allocate(HEADER_LENGTH + Long.BYTES + data.length)
+                .put(MAGIC).put(codec.id()).put((byte) FLAG_LOGICAL_EXPIRE)
+                .putLong(toEpochMilli(expireTime))
+                .put(data)
+                .array();
+    }
+
+    /**
+     * 提前刷新(XFetch)模式使用：同时记录过期时间和重建耗时。这种模式没有旧格式，Hutool也带头部
+     */
+    public byte[] encodeWithEarlyRefresh(String key, Object value, LocalDateTime expireTime, long deltaMillis) {
+        CacheCodec codec = codecFor(key);
+        byte[] data = codec.encode(value);
+        return ByteBuffer.allocate(HEADER_LENGTH + Long.BYTES + Integer.BYTES + data.length)
+                .put(MAGIC).put(codec.id()).put((byte) (FLAG_LOGICAL_EXPIRE | FLAG_DELTA))
+                .putLong(toEpochMilli(expireTime))
+                .putInt((int) Math.min(deltaMillis, Integer.MAX_VALUE))
+                .put(data)
+                .array();
+    }
+
+    public <T> T decode(byte[] raw, Class<T> type) {
+        if (!hasHeader(raw)) {
+            return JSONUtil.toBean(new String(raw, StandardCharsets.UTF_8), type);
+        }
+        int offset = dataOffset(raw);
+        return codecOf(raw).decode(raw, offset, raw.length - offset, type);
+    }
+
+    public <T> List<T> decodeList(byte[] raw, Class<T> type) {
+        if (!hasHeader(raw)) {
+            return JSONUtil.toList(new String(raw, StandardCharsets.UTF_8), type);
+        }
+        int offset = dataOffset(raw);
+        return codecOf(raw).decodeList(raw, offset, raw.length - offset, type);
+    }
+
+    /**
+     * 解析逻辑过期的值，返回的RedisData中data已经是目标类型
+     */
+    public <T> RedisData decodeWithLogicalExpire(byte[] raw, Class<T> type) {
+        RedisData redisData;
+        if (!hasHeader(raw)) {
+            //旧格式：RedisData整体是JSON，需要解析两次
+            redisData = JSONUtil.toBean(new String(raw, StandardCharsets.UTF_8), RedisData.class);
+            redisData.setData(JSONUtil.toBean((JSONObject) redisData.getData(), type));
+            return redisData;
+        }
+        if ((raw[2] & FLAG_LOGICAL_EXPIRE) == 0) {
+            throw new IllegalStateException("缓存值没有逻辑过期时间");
+        }
+        int offset = dataOffset(raw);
+        redisData = new RedisData();
+        redisData.setExpireTime(toLocalDateTime(ByteBuffer.wrap(raw, HEADER_LENGTH, Long.BYTES).getLong()));
+        if ((raw[2] & FLAG_DELTA) != 0) {
+            redisData.setDelta((long) ByteBuffer.wrap(raw, HEADER_LENGTH + Long.BYTES, Integer.BYTES).getInt());
+        }
+        redisData.setData(codecOf(raw).decode(raw, offset, raw.length - offset, type));
+        return redisData;
+    }
+
+    private static boolean hasHeader(byte[] raw) {
+        return raw.length >= HEADER_LENGTH && raw[0] == MAGIC;
+    }
+
+    private CacheCodec codecOf(byte[] raw) {
+        CacheCodec codec = raw[1] >= 0 ? codecsById[raw[1]] : null;
+        if (codec == null) {
+            throw new IllegalStateException("未知的缓存序列化方式id：" + raw[1]);
+        }
+        return codec;
+    }
+
+    private static int dataOffset(byte[] raw) {
+        int offset = HEADER_LENGTH;
+        if ((raw[2] & FLAG_LOGICAL_EXPIRE) != 0) {
+            offset += Long.BYTES;
+        }
+        if ((raw[2] & FLAG_DELTA) != 0) {
+            offset += Integer.BYTES;
+        }
+        return offset;
+    }
+
+    private static long toEpochMilli(LocalDateTime time) {
+        return time.atZone(ZoneId.systemDefault()).toInstant().toEpochMilli();
+    }
+
+    private static LocalDateTime toLocalDateTime(long epochMilli) {
+        return LocalDateTime.ofInstant(Instant.ofEpochMilli(epochMilli), ZoneId.systemDefault());
+    }
+}
@@ -0,0 +1,251 @@
+package com.hmdp.utils;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.actuate.health.Health;
+import org.springframework.boot.actuate.health.HealthIndicator;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Component;
+
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+
+/**
+ * 缓存预热：把数据库中的数据提前写入Redis，格式与该key前缀的查询方式({@link CacheMode})一致。
+ * <p>
+ * 每种实体通过{@link #register}注册一个数据源，按id分页读取(或只读取指定的热点id)，
+ * 每页交给有界线程池用pipeline批量写入。只在应用启动完成后自动执行一次，不提供通过HTTP触发的入口
+ * (全量预热会扫描整张表)，结果见健康检查的详情。预热期间本组件作为健康检查返回OUT_OF_SERVICE，
+ * 加入readiness分组后即可让流量在预热完成后再进来。
+ */
+@Slf4j
+@Component
+public class CacheWarmUp implements HealthIndicator {
+
+    /**
+     * 分页加载数据，返回id大于afterId的最多limit条，按id升序
+     */
+    @FunctionalInterface
+    public interface PageLoader<T> {
+        List<T> load(Long afterId, int limit);
+    }
+
+    private final CacheClient cacheClient;
+    private final boolean onStartup;
+    private final boolean gateReadiness;
+    private final int pageSize;
+    private final int parallelism;
+    //每写入多少页打印一次进度
+    private final int logEveryPages;
+
+    private final Map<String, Source<?>> sources = new ConcurrentHashMap<>();
+    private final AtomicBoolean running = new AtomicBoolean();
+    private volatile boolean finished;
+    private volatile Map<String, Object> lastReport = Collections.emptyMap();
+
+    public CacheWarmUp(CacheClient cacheClient,
+                       @Value("${hmdp.cache.warm-up.on-startup:true}") boolean onStartup,
+                       @Value("${hmdp.cache.warm-up.gate-readiness:false}") boolean gateReadiness,
+                       @Value("${hmdp.cache.warm-up.page-size:500}") int pageSize,
+                       @Value("${hmdp.cache.warm-up.parallelism:4}") int parallelism,
+                       @Value("${hmdp.cache.warm-up.log-every-pages:20}") int logEveryPages) {
+        this.cacheClient = cacheClient;
+        this.onStartup = onStartup;
+        this.gateReadiness = gateReadiness;
+        this.pageSize = pageSize;
+        this.parallelism = parallelism;
+        this.logEveryPages = logEveryPages;
+    }
+
+    /**
+     * 注册一个预热数据源
+     *
+     * @param keyPrefix 缓存key前缀，例如{@link RedisConstants#CACHE_SHOP_KEY}
+     * @param mode      该前缀实际使用的查询方式，决定写入的格式
+     * @param hotIds    只预热这些id，为空则全量预热
+     * @param loader    按id分页加载全量数据
+     * @param byIds     按id批量加载，预热热点id时使用
+     * @param idOf      取实体的id
+     * @param time      过期时间(逻辑过期或TTL，与查询时一致)
+     */
+    public <T> void register(String keyPrefix, CacheMode mode, List<Long> hotIds, PageLoader<T> loader,
+                             Function<Collection<Long>, List<T>> byIds, Function<T, Long> idOf,
+                             Long time, TimeUnit unit) {
+        sources.put(keyPrefix, new Source<>(keyPrefix, mode, hotIds, loader, byIds, idOf, time, unit));
+    }
+
+    /**
+     * 应用启动完成后在后台线程执行预热，不阻塞启动
+     */
+    @EventListener(ApplicationReadyEvent.class)
+    public void onApplicationReady() {
+        if (!onStartup) {
+            finished = true;
+            return;
+        }
+        Thread thread = new Thread(() -> {
+            try {
+                warmUp(null);
+            } catch (Exception e) {
+                log.error("启动时缓存预热失败", e);
+            }
+        }, "cache-warm-up");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * 执行预热
+     *
+     * @param keyPrefix 只预热这个前缀，为null则预热全部
+     * @return 本次预热的统计，已经有预热在执行时返回null
+     */
+    public Map<String, Object> warmUp(String keyPrefix) {
+        if (!running.compareAndSet(false, true)) {
+            log.info("缓存预热正在执行，忽略本次请求");
+            return null;
+        }
+        ThreadPoolExecutor executor = newExecutor();
+        try {
+            Map<String, Object> report = new LinkedHashMap<>();
+            for (Source<?> source : sources.values()) {
+                if (keyPrefix == null || keyPrefix.equals(source.keyPrefix)) {
+                    report.put(source.keyPrefix, warmUp(source, executor));
+                }
+            }
+            lastReport = report;
+            return report;
+        } finally {
+            executor.shutdown();
+            finished = true;
+            running.set(false);
+        }
+    }
+
+    private <T> Map<String, Object> warmUp(Source<T> source, ThreadPoolExecutor executor) {
+        long begin = System.currentTimeMillis();
+        AtomicLong written = new AtomicLong();
+        AtomicLong failed = new AtomicLong();
+        List<Future<?>> futures = new ArrayList<>();
+        int pages = 0;
+        log.info("开始预热缓存[{}]，{}", source.keyPrefix,
+                source.hotIds.isEmpty() ? "全量" : "热点id " + source.hotIds.size() + " 个");
+
+        if (source.hotIds.isEmpty()) {
+            //1.全量：主线程按id分页读取，写入交给线程池
+            long lastId = 0L;
+            while (true) {
+                List<T> page = source.loader.load(lastId, pageSize);
+                if (page == null || page.isEmpty()) {
+                    break;
+                }
+                futures.add(executor.submit(() -> write(source, page, written, failed)));
+                logProgress(source, ++pages, written, begin);
+                lastId = source.idOf.apply(page.get(page.size() - 1));
+                if (page.size() < pageSize) {
+                    break;
+                }
+            }
+        } else {
+            //2.热点id：按页大小切分，每页在线程池中查库并写入
+            for (int from = 0; from < source.hotIds.size(); from += pageSize) {
+                List<Long> ids = source.hotIds.subList(from, Math.min(from + pageSize, source.hotIds.size()));
+                futures.add(executor.submit(() -> write(source, source.byIds.apply(ids), written, failed)));
+                logProgress(source, ++pages, written, begin);
+            }
+        }
+
+        //3.等待全部写入完成
+        for (Future<?> future : futures) {
+            try {
+                future.get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IllegalStateException("缓存预热被中断", e);
+            } catch (ExecutionException e) {
+                log.error("缓存预热[{}]写入失败", source.keyPrefix, e.getCause());
+            }
+        }
+
+        long cost = Math.max(System.currentTimeMillis() - begin, 1L);
+        log.info("缓存预热[{}]完成，写入：{}，失败：{}，耗时：{}ms，{}条/秒",
+                source.keyPrefix, written.get(), failed.get(), cost, written.get() * 1000 / cost);
+        Map<String, Object> report = new LinkedHashMap<>();
+        report.put("written", written.get());
+        report.put("failed", failed.get());
+        report.put("costMillis", cost);
+        return report;
+    }
+
+    private <T> void write(Source<T> source, List<T> page, AtomicLong written, AtomicLong failed) {
+        if (page == null || page.isEmpty()) {
+            return;
+        }
+        Map<String, Object> values = new LinkedHashMap<>(page.size());
+        for (T t : page) {
+            values.put(source.keyPrefix + source.idOf.apply(t), t);
+        }
+        try {
+            cacheClient.setAll(source.mode, values, source.time, source.unit);
+            written.addAndGet(values.size());
+        } catch (RuntimeException e) {
+            failed.addAndGet(values.size());
+            throw e;
+        }
+    }
+
+    private void logProgress(Source<?> source, int pages, AtomicLong written, long begin) {
+        if (pages % logEveryPages == 0) {
+            long cost = Math.max(System.currentTimeMillis() - begin, 1L);
+            log.info("缓存预热[{}]进行中，已提交{}页，已写入：{}，{}条/秒",
+                    source.keyPrefix, pages, written.get(), written.get() * 1000 / cost);
+        }
+    }
+
+    //有界队列 + 调用者执行：写入跟不上时读取线程自己写，从而限制内存中的页数
+    private ThreadPoolExecutor newExecutor() {
+        return new ThreadPoolExecutor(parallelism, parallelism, 0L, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(parallelism),
+                r -> {
+                    Thread thread = new Thread(r, "cache-warm-up-worker");
+                    thread.setDaemon(true);
+                    return thread;
+                },
+                new ThreadPoolExecutor.CallerRunsPolicy());
+    }
+
+    @Override
+    public Health health() {
+        if (gateReadiness && !finished) {
+            return Health.outOfService().withDetail("running", running.get()).build();
+        }
+        return Health.up().withDetails(lastReport).build();
+    }
+
+    private static class Source<T> {
+        private final String keyPrefix;
+        private final CacheMode mode;
+        private final List<Long> hotIds;
+        private final PageLoader<T> loader;
+        private final Function<Collection<Long>, List<T>> byIds;
+        private final Function<T, Long> idOf;
+        private final Long time;
+        private final TimeUnit unit;
+
+        private Source(String keyPrefix, CacheMode mode, List<Long> hotIds, PageLoader<T> loader,
+                       Function<Collection<Long>, List<T>> byIds, Function<T, Long> idOf, Long time, TimeUnit unit) {
+            this.keyPrefix = keyPrefix;
+            this.mode = mode;
+            this.hotIds = hotIds == null ? Collections.emptyList() : hotIds;
+            this.loader = loader;
+            this.byIds = byIds;
+            this.idOf = idOf;
+            this.time = time;
+            this.unit = unit;
+        }
+    }
+}
@@ -0,0 +1,41 @@
+package com.hmdp.utils;
+
+import cn.hutool.json.JSONUtil;
+
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+/**
+ * Hutool JSON，也是引入可插拔序列化之前的格式。
+ * <p>
+ * 用它写入的值不带头部，和旧版本节点写入的内容完全一致，方便滚动发布。
+ */
+public class HutoolJsonCodec implements CacheCodec {
+
+    public static final byte ID = 0;
+
+    @Override
+    public byte id() {
+        return ID;
+    }
+
+    @Override
+    public String name() {
+        return "hutool";
+    }
+
+    @Override
+    public byte[] encode(Object value) {
+        return JSONUtil.toJsonStr(value).getBytes(StandardCharsets.UTF_8);
+    }
+
+    @Override
+    public <T> T decode(byte[] bytes, int offset, int length, Class<T> type) {
+        return JSONUtil.toBean(new String(bytes, offset, length, StandardCharsets.UTF_8), type);
+    }
+
+    @Override
+    public <T> List<T> decodeList(byte[] bytes, int offset, int length, Class<T> type) {
+        return JSONUtil.toList(new String(bytes, offset, length, StandardCharsets.UTF_8), type);
+    }
+}
@@ -0,0 +1,71 @@
+package com.hmdp.utils;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 两级锁：先获取本地锁，再获取分布式锁。
+ * <p>
+ * 同一个节点上抢同一个key的线程先在本地锁上排队，只有拿到本地锁的一个线程去访问Redis，
+ * 热点key失效时每个节点只会发出一份加锁请求，而不是每个请求线程各发一份。
+ * 本地锁每个key一个，不同的key互不影响，没有线程持有或等待时由{@link RedisLockFactory}回收。
+ * 通过{@link RedisLockFactory#getHybridLock(String)}创建。
+ */
+public class HybridLock implements ILock {
+
+    private final RedisLockFactory redisLockFactory;
+    private final String name;
+    private final ILock distributedLock;
+
+    public HybridLock(RedisLockFactory redisLockFactory, String name, ILock distributedLock) {
+        this.redisLockFactory = redisLockFactory;
+        this.name = name;
+        this.distributedLock = distributedLock;
+    }
+
+    @Override
+    public boolean tryLock(long timeoutSec) {
+        //本地锁被占用说明本节点已经有线程在处理同一个key，直接失败
+        if (!redisLockFactory.tryLockLocal(name)) {
+            return false;
+        }
+        boolean success = false;
+        try {
+            success = distributedLock.tryLock(timeoutSec);
+            return success;
+        } finally {
+            if (!success) {
+                redisLockFactory.unlockLocal(name);
+            }
+        }
+    }
+
+    @Override
+    public boolean tryLock(long waitTime, long leaseTime, TimeUnit unit) throws InterruptedException {
+        long deadline = System.nanoTime() + unit.toNanos(waitTime);
+        //1.在本地锁上等待，不访问Redis
+        if (!redisLockFactory.tryLockLocal(name, waitTime, unit)) {
+            return false;
+        }
+        //2.拿到本地锁后，用剩余的等待时间获取分布式锁
+        boolean success = false;
+        try {
+            long remaining = Math.max(0, deadline - System.nanoTime());
+            long lease = leaseTime == -1 ? -1 : unit.toNanos(leaseTime);
+            success = distributedLock.tryLock(remaining, lease, TimeUnit.NANOSECONDS);
+            return success;
+        } finally {
+            if (!success) {
+                redisLockFactory.unlockLocal(name);
+            }
+        }
+    }
+
+    @Override
+    public void unlock() {
+        try {
+            distributedLock.unlock();
+        } finally {
+            redisLockFactory.unlockLocal(name);
+        }
+    }
+}
@@ -1,5 +1,7 @@
 package com.hmdp.utils;
 
+import java.util.concurrent.TimeUnit;
+
 /**
  * @author wzy
  * @creat 2023-07-21-13:04
@@ -13,6 +15,15 @@ public interface ILock {
      */
     boolean tryLock(long timeoutSec);
 
+    /**
+     * 尝试获取锁，被其他线程持有时最多等待waitTime
+     *
+     * @param waitTime  最多等待的时间，0表示不等待
+     * @param leaseTime 锁持有的超时时间，-1表示由看门狗自动续期，直到释放锁
+     * @return true表示获取锁成功，false表示等待超时
+     */
+    boolean tryLock(long waitTime, long leaseTime, TimeUnit unit) throws InterruptedException;
+
     /**
      * 释放锁
      */
@@ -0,0 +1,258 @@
+package com.hmdp.utils;
+
+import cn.hutool.core.util.StrUtil;
+import lombok.extern.slf4j.Slf4j;
+import org.redisson.api.RBloomFilter;
+import org.redisson.api.RLock;
+import org.redisson.api.RedissonClient;
+import org.redisson.client.codec.StringCodec;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 基于Redisson布隆过滤器的实体id过滤器，用来在查Redis和数据库之前拦截不存在的id(缓存穿透)。
+ * <p>
+ * 每种实体(店铺、笔记、用户...)通过{@link #register}注册一个过滤器，并提供分页加载全部id的方法。
+ * 过滤器数据保存在Redis中，所有节点共享；为了支持重建(扩容、清理已删除的id)，
+ * 实际的过滤器名带有版本号，{@code bloom:<实体>}中保存当前生效的版本，重建完成后切换过去。
+ */
+@Slf4j
+@Component
+public class IdBloomFilter {
+
+    /**
+     * 分页加载id，返回大于afterId的最多limit个id，按id升序
+     */
+    @FunctionalInterface
+    public interface IdLoader {
+        List<Long> load(Long afterId, int limit);
+    }
+
+    private static final int LOAD_PAGE_SIZE = 1000;
+    //切换版本后旧过滤器保留的时间，给其他节点留出刷新指针的时间
+    private static final long OLD_FILTER_TTL_MINUTES = 10L;
+
+    private final RedissonClient redissonClient;
+    private final StringRedisTemplate stringRedisTemplate;
+    private final Map<String, Filter> filters = new ConcurrentHashMap<>();
+
+    public IdBloomFilter(RedissonClient redissonClient, StringRedisTemplate stringRedisTemplate) {
+        this.redissonClient = redissonClient;
+        this.stringRedisTemplate = stringRedisTemplate;
+    }
+
+    /**
+     * 注册一个过滤器，真正的加载在应用启动完成后进行
+     *
+     * @param name               过滤器名，例如{@link RedisConstants#BLOOM_SHOP_KEY}
+     * @param expectedInsertions 预计元素数量
+     * @param falseProbability   期望的误判率
+     * @param loader             分页加载全部id
+     */
+    public void register(String name, long expectedInsertions, double falseProbability, IdLoader loader) {
+        filters.put(name, new Filter(name, expectedInsertions, falseProbability, loader));
+    }
+
+    /**
+     * 过滤器是否已经可用。不可用时{@link #mightContain}总是返回true
+     */
+    public boolean isReady(String name) {
+        Filter filter = filters.get(name);
+        return filter != null && filter.current != null;
+    }
+
+    /**
+     * 判断id是否可能存在。返回false表示一定不存在；Redis不可用时返回true，不影响正常查询
+     */
+    public boolean mightContain(String name, Object id) {
+        Filter filter = filters.get(name);
+        RBloomFilter<String> current = filter == null ? null : filter.current;
+        if (current == null) {
+            //未注册或还没加载完成，不做拦截
+            return true;
+        }
+        try {
+            return current.contains(id.toString());
+        } catch (Exception e) {
+            log.warn("查询布隆过滤器[{}]失败，暂不拦截", name, e);
+            return true;
+        }
+    }
+
+    /**
+     * 新增实体后调用，把id加入当前生效的过滤器
+     */
+    public void add(String name, Object id) {
+        Filter filter = filters.get(name);
+        if (filter == null) {
+            return;
+        }
+        //以Redis中的指针为准，避免本节点还没刷新到重建后的新版本
+        String currentName = stringRedisTemplate.opsForValue().get(name);
+        if (StrUtil.isNotBlank(currentName)) {
+            redissonClient.<String>getBloomFilter(currentName, StringCodec.INSTANCE).add(id.toString());
+        }
+        RBloomFilter<String> local = filter.current;
+        if (local != null && !local.getName().equals(currentName)) {
+            local.add(id.toString());
+        }
+    }
+
+    /**
+     * 重建过滤器：加载全部id写入新版本，然后切换指针。如果其他节点正在重建则直接返回
+     */
+    public void rebuild(String name) {
+        Filter filter = filters.get(name);
+        if (filter == null) {
+            return;
+        }
+        RLock lock = redissonClient.getLock(RedisConstants.LOCK_BLOOM_KEY + name);
+        if (!lock.tryLock()) {
+            log.info("布隆过滤器[{}]正在由其他节点重建", name);
+            return;
+        }
+        try {
+            doRebuild(filter);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    //启动时使用：等待其他节点的构建完成，仍然不存在才自己构建
+    private void ensureBuilt(Filter filter) {
+        if (attach(filter)) {
+            return;
+        }
+        RLock lock = redissonClient.getLock(RedisConstants.LOCK_BLOOM_KEY + filter.name);
+        lock.lock();
+        try {
+            if (!attach(filter)) {
+                doRebuild(filter);
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void doRebuild(Filter filter) {
+        long begin = System.currentTimeMillis();
+        //1.创建新版本的过滤器
+        String newName = filter.name + ":" + begin;
+        RBloomFilter<String> bloomFilter = redissonClient.getBloomFilter(newName, StringCodec.INSTANCE);
+        bloomFilter.tryInit(filter.expectedInsertions, filter.falseProbability);
+        //2.分页加载全部id
+        long lastId = loadInto(filter, bloomFilter, 0L);
+        //3.切换指针
+        String oldName = stringRedisTemplate.opsForValue().getAndSet(filter.name, newName);
+        filter.current = bloomFilter;
+        //4.补齐加载期间新增的id(切换前写入旧版本的那部分)
+        long maxId = loadInto(filter, bloomFilter, lastId);
+        //5.旧版本延迟删除
+        if (StrUtil.isNotBlank(oldName) && !oldName.equals(newName)) {
+            redissonClient.getBloomFilter(oldName, StringCodec.INSTANCE).expire(OLD_FILTER_TTL_MINUTES, TimeUnit.MINUTES);
+        }
+        log.info("布隆过滤器[{}]重建完成，版本：{}，最大id：{}，耗时：{}ms",
+                filter.name, newName, maxId, System.currentTimeMillis() - begin);
+    }
+
+    //从afterId开始加载剩余的全部id，返回加载到的最大id
+    private long loadInto(Filter filter, RBloomFilter<String> bloomFilter, long afterId) {
+        long lastId = afterId;
+        while (true) {
+            List<Long> ids = filter.loader.load(lastId, LOAD_PAGE_SIZE);
+            if (ids == null || ids.isEmpty()) {
+                return lastId;
+            }
+            for (Long id : ids) {
+                bloomFilter.add(id.toString());
+            }
+            lastId = ids.get(ids.size() - 1);
+            if (ids.size() < LOAD_PAGE_SIZE) {
+                return lastId;
+            }
+        }
+    }
+
+    /**
+     * 启动完成后挂载已有的过滤器，不存在则构建
+     */
+    @EventListener(ApplicationReadyEvent.class)
+    public void init() {
+        for (Filter filter : filters.values()) {
+            try {
+                ensureBuilt(filter);
+            } catch (Exception e) {
+                log.error("布隆过滤器[{}]初始化失败，暂不拦截", filter.name, e);
+            }
+        }
+    }
+
+    /**
+     * 定期刷新指针，感知其他节点完成的重建
+     */
+    @Scheduled(fixedDelayString = "${hmdp.bloom.refresh-interval:60000}")
+    public void refresh() {
+        for (Filter filter : filters.values()) {
+            try {
+                attach(filter);
+            } catch (Exception e) {
+                log.warn("刷新布隆过滤器[{}]失败", filter.name, e);
+            }
+        }
+    }
+
+    /**
+     * 定时全量重建，清理已删除的id，同时让新的容量/误判率配置生效
+     */
+    @Scheduled(cron = "${hmdp.bloom.rebuild-cron:0 0 4 * * ?}")
+    public void rebuildAll() {
+        for (String name : filters.keySet()) {
+            try {
+                rebuild(name);
+            } catch (Exception e) {
+                log.error("布隆过滤器[{}]重建失败", name, e);
+            }
+        }
+    }
+
+    //按Redis中的指针挂载过滤器，返回是否挂载成功
+    private boolean attach(Filter filter) {
+        String currentName = stringRedisTemplate.opsForValue().get(filter.name);
+        if (StrUtil.isBlank(currentName)) {
+            return false;
+        }
+        RBloomFilter<String> current = filter.current;
+        if (current != null && current.getName().equals(currentName)) {
+            return true;
+        }
+        RBloomFilter<String> bloomFilter = redissonClient.getBloomFilter(currentName, StringCodec.INSTANCE);
+        if (!bloomFilter.isExists()) {
+            return false;
+        }
+        filter.current = bloomFilter;
+        return true;
+    }
+
+    private static class Filter {
+        private final String name;
+        private final long expectedInsertions;
+        private final double falseProbability;
+        private final IdLoader loader;
+        private volatile RBloomFilter<String> current;
+
+        private Filter(String name, long expectedInsertions, double falseProbability, IdLoader loader) {
+            this.name = name;
+            this.expectedInsertions = expectedInsertions;
+            this.falseProbability = falseProbability;
+            this.loader = loader;
+        }
+    }
+}
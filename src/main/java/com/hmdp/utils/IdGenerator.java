@@ -0,0 +1,15 @@
+package com.hmdp.utils;
+
+/**
+ * 全局唯一id生成器，通过hmdp.id.mode选择实现：
+ * redis(默认，{@link RedisIdWorker})或snowflake({@link SnowflakeIdWorker})
+ */
+public interface IdGenerator {
+
+    /**
+     * 生成下一个id
+     *
+     * @param keyPrefix 业务名称，例如order
+     */
+    long nextId(String keyPrefix);
+}
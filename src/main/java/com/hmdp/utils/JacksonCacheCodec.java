@@ -0,0 +1,90 @@
+package com.hmdp.utils;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.databind.DeserializationFeature;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.type.CollectionType;
+import com.fasterxml.jackson.datatype.jsr310.JavaTimeModule;
+import com.fasterxml.jackson.dataformat.smile.SmileFactory;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.List;
+
+/**
+ * 基于Jackson的序列化，JSON文本和Smile二进制两种格式共用一套配置：
+ * 忽略null字段、时间类型写成数组、忽略未知字段。
+ * <p>
+ * 使用独立的ObjectMapper，缓存格式不受Web层Jackson配置的影响。
+ */
+public class JacksonCacheCodec implements CacheCodec {
+
+    public static final byte JSON_ID = 1;
+    public static final byte SMILE_ID = 2;
+
+    private final byte id;
+    private final String name;
+    private final ObjectMapper mapper;
+
+    private JacksonCacheCodec(byte id, String name, JsonFactory factory) {
+        this.id = id;
+        this.name = name;
+        this.mapper = new ObjectMapper(factory)
+                .registerModule(new JavaTimeModule())
+                .setSerializationInclusion(JsonInclude.Include.NON_NULL)
+                .disable(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES);
+    }
+
+    /**
+     * JSON文本格式
+     */
+    public static JacksonCacheCodec json() {
+        return new JacksonCacheCodec(JSON_ID, "jackson", new JsonFactory());
+    }
+
+    /**
+     * Smile二进制格式，体积更小，解析更快
+     */
+    public static JacksonCacheCodec smile() {
+        return new JacksonCacheCodec(SMILE_ID, "smile", new SmileFactory());
+    }
+
+    @Override
+    public byte id() {
+        return id;
+    }
+
+    @Override
+    public String name() {
+        return name;
+    }
+
+    @Override
+    public byte[] encode(Object value) {
+        try {
+            return mapper.writeValueAsBytes(value);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    @Override
+    public <T> T decode(byte[] bytes, int offset, int length, Class<T> type) {
+        try {
+            return mapper.readValue(bytes, offset, length, type);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    @Override
+    public <T> List<T> decodeList(byte[] bytes, int offset, int length, Class<T> type) {
+        CollectionType listType = mapper.getTypeFactory().constructCollectionType(List.class, type);
+        try {
+            return mapper.readValue(bytes, offset, length, listType);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+}
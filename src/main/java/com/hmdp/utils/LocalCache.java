@@ -0,0 +1,120 @@
+package com.hmdp.utils;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.redis.connection.Message;
+import org.springframework.data.redis.connection.MessageListener;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.listener.ChannelTopic;
+import org.springframework.data.redis.listener.RedisMessageListenerContainer;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 进程内的一级缓存(L1)，位于Redis(L2)之前。
+ * <p>
+ * 基于Caffeine实现，容量和存活时间都有上限，淘汰策略(W-TinyLFU)会参考访问频率，
+ * 因此只有真正的热点key才会常驻。某个节点删除缓存时通过Redis发布订阅广播失效消息，
+ * 所有节点(包括自己)收到后丢弃本地副本。批量失效时一条消息包含多个key，以换行分隔。
+ */
+@Slf4j
+@Component
+public class LocalCache implements MessageListener {
+
+    //批量失效消息中key之间的分隔符，key中不会出现换行
+    private static final String KEY_SEPARATOR = "\n";
+
+    private final StringRedisTemplate stringRedisTemplate;
+    private final RedisMessageListenerContainer listenerContainer;
+    private final boolean enabled;
+    private final Cache<String, Object> cache;
+
+    public LocalCache(StringRedisTemplate stringRedisTemplate,
+                      RedisMessageListenerContainer listenerContainer,
+                      @Value("${hmdp.cache.local.enabled:false}") boolean enabled,
+                      @Value("${hmdp.cache.local.maximum-size:10000}") long maximumSize,
+                      @Value("${hmdp.cache.local.expire-seconds:60}") long expireSeconds) {
+        this.stringRedisTemplate = stringRedisTemplate;
+        this.listenerContainer = listenerContainer;
+        this.enabled = enabled;
+        this.cache = Caffeine.newBuilder()
+                .maximumSize(maximumSize)
+                .expireAfterWrite(expireSeconds, TimeUnit.SECONDS)
+                .build();
+    }
+
+    @PostConstruct
+    private void init() {
+        if (enabled) {
+            //订阅缓存失效频道
+            listenerContainer.addMessageListener(this, new ChannelTopic(RedisConstants.CACHE_INVALIDATE_CHANNEL));
+        }
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    @SuppressWarnings("unchecked")
+    public <R> R get(String key) {
+        if (!enabled) {
+            return null;
+        }
+        return (R) cache.getIfPresent(key);
+    }
+
+    public void put(String key, Object value) {
+        if (enabled && value != null) {
+            cache.put(key, value);
+        }
+    }
+
+    /**
+     * 只删除本节点的副本
+     */
+    public void evict(String key) {
+        if (enabled) {
+            cache.invalidate(key);
+        }
+    }
+
+    /**
+     * 删除本节点副本，并通知其他节点删除
+     */
+    public void invalidate(String key) {
+        if (!enabled) {
+            return;
+        }
+        cache.invalidate(key);
+        stringRedisTemplate.convertAndSend(RedisConstants.CACHE_INVALIDATE_CHANNEL, key);
+    }
+
+    /**
+     * 批量删除本节点副本，并用一条消息通知其他节点删除
+     */
+    public void invalidateAll(Collection<String> keys) {
+        if (!enabled || keys.isEmpty()) {
+            return;
+        }
+        cache.invalidateAll(keys);
+        stringRedisTemplate.convertAndSend(RedisConstants.CACHE_INVALIDATE_CHANNEL, String.join(KEY_SEPARATOR, keys));
+    }
+
+    @Override
+    public void onMessage(Message message, byte[] pattern) {
+        String body = new String(message.getBody(), StandardCharsets.UTF_8);
+        log.debug("收到缓存失效通知：{}", body);
+        if (body.contains(KEY_SEPARATOR)) {
+            cache.invalidateAll(Arrays.asList(body.split(KEY_SEPARATOR)));
+        } else {
+            cache.invalidate(body);
+        }
+    }
+}
@@ -11,12 +11,41 @@ public class RedisConstants {
     public static final Long CACHE_SHOP_TTL = 30L;
     public static final String CACHE_SHOP_KEY = "cache:shop:";
 
+    public static final Long CACHE_USER_TTL = 30L;
+    public static final String CACHE_USER_KEY = "cache:user:";
+
+    public static final String CACHE_INVALIDATE_CHANNEL = "cache:invalidate";
+
     public static final String CACHE_SHOP_TYPE_KEY = "cache:shop:type";
 
     public static final String LOCK_SHOP_KEY = "lock:shop:";
     public static final Long LOCK_SHOP_TTL = 10L;
+    //可重入锁完全释放时的通知频道，内容为锁名称
+    public static final String LOCK_UNLOCK_CHANNEL = "lock:unlock";
+
+    public static final String BLOOM_SHOP_KEY = "bloom:shop";
+    public static final String LOCK_BLOOM_KEY = "lock:bloom:";
 
     public static final String SECKILL_STOCK_KEY = "seckill:stock:";
+    public static final String SECKILL_ORDER_KEY = "seckill:order:";
+    public static final String SECKILL_SHARDS_KEY = "seckill:shards:";
+    public static final String SECKILL_TIME_KEY = "seckill:time:";
+    public static final String SECKILL_SOLD_OUT_CHANNEL = "seckill:soldout";
+    //分片库存：跨分片扣库存的转移记录(与被扣的分片在同一个槽)，以及全部分片模式的秒杀券id
+    public static final String SECKILL_TRANSFER_KEY = "seckill:transfer:";
+    public static final String SECKILL_SHARDED_KEY = "seckill:sharded";
+    //秒杀订单状态 seckill:status:<userId>:<orderId>，以及状态变化的通知频道
+    public static final String SECKILL_ORDER_STATUS_KEY = "seckill:status:";
+    public static final Long SECKILL_ORDER_STATUS_TTL = 30L;
+    public static final String SECKILL_ORDER_STATUS_CHANNEL = "seckill:status";
+    //秒杀限流：每张券的限流配置，以及全局模式下的令牌桶(同一张券的桶使用相同的hash tag)
+    public static final String SECKILL_LIMIT_KEY = "seckill:limit:";
+    public static final String SECKILL_BUCKET_KEY = "seckill:bucket:";
+    //秒杀订单消息队列，与seckill.lua中的名称一致
+    public static final String SECKILL_ORDER_STREAM = "stream.orders";
+    public static final String SECKILL_ORDER_GROUP = "g1";
+    //snowflake模式下各节点租用的worker id
+    public static final String ID_WORKER_KEY = "id:worker:";
     public static final String BLOG_LIKED_KEY = "blog:liked:";
     public static final String FEED_KEY = "feed:";
     public static final String SHOP_GEO_KEY = "shop:geo:";
@@ -8,4 +8,6 @@ import java.time.LocalDateTime;
 public class RedisData {
     private LocalDateTime expireTime;
     private Object data;
+    //重建耗时(毫秒)，只有提前刷新模式才有
+    private Long delta;
 }
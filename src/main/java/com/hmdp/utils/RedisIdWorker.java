@@ -1,28 +1,66 @@
 package com.hmdp.utils;
 
-import org.springframework.beans.factory.annotation.Autowired;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
 import org.springframework.data.redis.core.StringRedisTemplate;
 import org.springframework.stereotype.Component;
 
+import javax.annotation.PreDestroy;
+import java.time.LocalDate;
 import java.time.LocalDateTime;
 import java.time.ZoneOffset;
 import java.time.format.DateTimeFormatter;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
+ * 全局唯一id：31位时间戳(秒) + 32位序列号，序列号来自Redis中按业务、按天自增的计数器icr:业务:日期。
+ * <p>
+ * 号段模式(segment-size大于1)下每次用INCRBY从Redis领取一段序列号，在本地依次分配，
+ * 当前号段用掉80%时在后台预取下一段，正常情况下生成id不需要访问Redis。id的格式不变。
+ *
  * @author wzy
  * @creat 2023-07-16-17:12
  */
+@Slf4j
 @Component
-public class RedisIdWorker {
-
-    @Autowired
-    private StringRedisTemplate stringRedisTemplate;
+@ConditionalOnProperty(name = "hmdp.id.mode", havingValue = "redis", matchIfMissing = true)
+public class RedisIdWorker implements IdGenerator {
 
     //设置起始时间:2022.01.01 00:00:00
     public static final Long BEGIN_TIMESTAMP = 1640995200L;
     //序列号长度
     public static final Long COUNT_BIT = 32L;
 
+    private static final DateTimeFormatter DATE_FORMATTER = DateTimeFormatter.ofPattern("yyyy:MM:dd");
+    private static final long SECONDS_PER_DAY = 86400L;
+
+    private final StringRedisTemplate stringRedisTemplate;
+    //每次领取的序列号数量，小于等于1时每个id都INCR一次
+    private final int segmentSize;
+    //每个业务的号段
+    private final Map<String, SegmentAllocator> allocators = new ConcurrentHashMap<>();
+    //预取号段的后台线程
+    private final ExecutorService prefetchExecutor = Executors.newSingleThreadExecutor(r -> {
+        Thread thread = new Thread(r, "id-segment-prefetch");
+        thread.setDaemon(true);
+        return thread;
+    });
+    //当天的日期字符串，跨天时才重新格式化
+    private volatile CachedDate cachedDate = new CachedDate(-1, null);
+
+    public RedisIdWorker(StringRedisTemplate stringRedisTemplate,
+                         @Value("${hmdp.id.segment-size:1000}") int segmentSize) {
+        this.stringRedisTemplate = stringRedisTemplate;
+        this.segmentSize = segmentSize;
+    }
+
+    @Override
     public long nextId(String keyPrefix) {
         //生成时间戳
         long nowSecond = LocalDateTime.now().toEpochSecond(ZoneOffset.UTC);
@@ -30,15 +68,130 @@ public class RedisIdWorker {
 
         //生成序列号
         // 先获取当天日期，精确到天
-        String date = LocalDateTime.now().format(DateTimeFormatter.ofPattern("yyyy:MM:dd"));
-        // 自增长
-        long count = stringRedisTemplate.opsForValue().increment("icr:" + keyPrefix + ":" + date);
+        String date = date(nowSecond);
+        long count;
+        if (segmentSize <= 1) {
+            // 自增长
+            count = stringRedisTemplate.opsForValue().increment(key(keyPrefix, date));
+        } else {
+            // 从本地号段中分配
+            count = allocators.computeIfAbsent(keyPrefix, SegmentAllocator::new).next(date);
+        }
 
         //拼接并返回
         long id = timeStamp << COUNT_BIT | count; // 将timeStamp左移32位，然后使用或运算拼接redis序列号
         return id;
     }
 
+    private String date(long nowSecond) {
+        long day = Math.floorDiv(nowSecond, SECONDS_PER_DAY);
+        CachedDate cached = cachedDate;
+        if (cached.day != day) {
+            cached = new CachedDate(day, LocalDate.ofEpochDay(day).format(DATE_FORMATTER));
+            cachedDate = cached;
+        }
+        return cached.date;
+    }
+
+    private static String key(String keyPrefix, String date) {
+        return "icr:" + keyPrefix + ":" + date;
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        prefetchExecutor.shutdownNow();
+    }
+
+    /**
+     * 一个业务的号段分配器
+     */
+    private class SegmentAllocator {
+        private final String keyPrefix;
+        private volatile Segment current;
+        //后台预取的下一段，用完当前号段时直接切换
+        private CompletableFuture<Segment> prefetch;
+
+        private SegmentAllocator(String keyPrefix) {
+            this.keyPrefix = keyPrefix;
+        }
+
+        private long next(String date) {
+            while (true) {
+                Segment segment = current;
+                if (segment != null && segment.date.equals(date)) {
+                    long count = segment.next.getAndIncrement();
+                    if (count <= segment.end) {
+                        if (count == segment.prefetchAt) {
+                            prefetch(date);
+                        }
+                        return count;
+                    }
+                }
+                //号段用完或跨天，只有一个线程去切换，其他线程等待后重试
+                synchronized (this) {
+                    if (current == segment) {
+                        current = take(date);
+                    }
+                }
+            }
+        }
+
+        private synchronized void prefetch(String date) {
+            if (prefetch != null) {
+                return;
+            }
+            prefetch = CompletableFuture.supplyAsync(() -> allocate(date), prefetchExecutor);
+        }
+
+        //优先使用预取的号段，预取失败或日期不对时同步领取
+        private Segment take(String date) {
+            CompletableFuture<Segment> future = prefetch;
+            prefetch = null;
+            if (future != null) {
+                try {
+                    Segment segment = future.join();
+                    if (segment.date.equals(date)) {
+                        return segment;
+                    }
+                } catch (Exception e) {
+                    log.warn("预取id号段失败，同步领取，业务：{}", keyPrefix, e);
+                }
+            }
+            return allocate(date);
+        }
+
+        //INCRBY领取一段序列号：(end - segmentSize, end]
+        private Segment allocate(String date) {
+            Long end = stringRedisTemplate.opsForValue().increment(key(keyPrefix, date), segmentSize);
+            return new Segment(date, end - segmentSize + 1, end, end - segmentSize / 5);
+        }
+    }
+
+    private static class Segment {
+        private final String date;
+        private final AtomicLong next;
+        private final long end;
+        //分配到这个序列号时开始预取下一段
+        private final long prefetchAt;
+
+        private Segment(String date, long start, long end, long prefetchAt) {
+            this.date = date;
+            this.next = new AtomicLong(start);
+            this.end = end;
+            this.prefetchAt = prefetchAt;
+        }
+    }
+
+    private static class CachedDate {
+        private final long day;
+        private final String date;
+
+        private CachedDate(long day, String date) {
+            this.day = day;
+            this.date = date;
+        }
+    }
+
 //    public static void main(String[] args) {
 //        //设置一下起始时间，时间戳就是起始时间与当前时间的秒数差
 //        LocalDateTime tmp = LocalDateTime.of(2022, 1, 1, 0, 0, 0);
@@ -0,0 +1,207 @@
+package com.hmdp.utils;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.redis.connection.Message;
+import org.springframework.data.redis.connection.MessageListener;
+import org.springframework.data.redis.listener.ChannelTopic;
+import org.springframework.data.redis.listener.RedisMessageListenerContainer;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * 创建{@link SimpleRedisLock}，并提供锁需要的两个公共组件：
+ * <ul>
+ *     <li>释放通知：所有锁共用一个频道，消息内容为锁名称，收到后唤醒本节点上等待这个锁的一个线程</li>
+ *     <li>看门狗：每隔超时时间的1/3为仍持有的锁续期，最后一次释放(包括重入)时停止</li>
+ * </ul>
+ */
+@Slf4j
+@Component
+public class RedisLockFactory implements MessageListener {
+
+    private final RedisScriptRegistry redisScriptRegistry;
+    private final RedisMessageListenerContainer listenerContainer;
+    private final long watchdogMillis;
+    //两级锁中的本地锁，每个锁名称一个，没有线程持有或等待时移除
+    private final Map<String, LocalLock> localLocks = new ConcurrentHashMap<>();
+
+    //每个锁名称上等待的线程
+    private final Map<String, Waiters> waiters = new ConcurrentHashMap<>();
+    //每个锁、每个持有线程的续期任务
+    private final Map<String, Renewal> renewals = new ConcurrentHashMap<>();
+    private final ScheduledExecutorService watchdog = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread thread = new Thread(r, "lock-watchdog");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    public RedisLockFactory(RedisScriptRegistry redisScriptRegistry,
+                            RedisMessageListenerContainer listenerContainer,
+                            @Value("${hmdp.lock.watchdog-timeout-millis:30000}") long watchdogMillis) {
+        this.redisScriptRegistry = redisScriptRegistry;
+        this.listenerContainer = listenerContainer;
+        this.watchdogMillis = watchdogMillis;
+    }
+
+    @PostConstruct
+    private void init() {
+        listenerContainer.addMessageListener(this, new ChannelTopic(RedisConstants.LOCK_UNLOCK_CHANNEL));
+    }
+
+    /**
+     * 获取一个锁对象，key为lock:名称
+     */
+    public ILock getLock(String name) {
+        return new SimpleRedisLock(redisScriptRegistry, this, name);
+    }
+
+    /**
+     * 获取一个两级锁：本节点内先在这个名称的本地锁上排队，再获取分布式锁lock:名称
+     */
+    public ILock getHybridLock(String name) {
+        return new HybridLock(this, name, getLock(name));
+    }
+
+    //获取本地锁，不等待
+    boolean tryLockLocal(String name) {
+        LocalLock local = retainLocal(name);
+        if (local.lock.tryLock()) {
+            return true;
+        }
+        releaseLocal(name);
+        return false;
+    }
+
+    //获取本地锁，最多等待waitTime
+    boolean tryLockLocal(String name, long waitTime, TimeUnit unit) throws InterruptedException {
+        LocalLock local = retainLocal(name);
+        boolean success = false;
+        try {
+            success = local.lock.tryLock(waitTime, unit);
+            return success;
+        } finally {
+            if (!success) {
+                releaseLocal(name);
+            }
+        }
+    }
+
+    //释放本地锁，持有期间引用计数不为0，本地锁一定还在
+    void unlockLocal(String name) {
+        localLocks.get(name).lock.unlock();
+        releaseLocal(name);
+    }
+
+    //引用计数包括持有和等待的线程，重入时每次加锁各计一次
+    private LocalLock retainLocal(String name) {
+        return localLocks.compute(name, (k, l) -> {
+            LocalLock result = l == null ? new LocalLock() : l;
+            result.refs++;
+            return result;
+        });
+    }
+
+    private void releaseLocal(String name) {
+        localLocks.computeIfPresent(name, (k, l) -> --l.refs == 0 ? null : l);
+    }
+
+    public long getWatchdogMillis() {
+        return watchdogMillis;
+    }
+
+    Semaphore subscribe(String name) {
+        return waiters.compute(name, (k, w) -> {
+            Waiters result = w == null ? new Waiters() : w;
+            result.count++;
+            return result;
+        }).released;
+    }
+
+    void unsubscribe(String name) {
+        waiters.computeIfPresent(name, (k, w) -> --w.count == 0 ? null : w);
+    }
+
+    @Override
+    public void onMessage(Message message, byte[] pattern) {
+        Waiters w = waiters.get(new String(message.getBody(), StandardCharsets.UTF_8));
+        if (w != null) {
+            //只唤醒一个，其他线程等它释放后再被唤醒
+            w.released.release();
+        }
+    }
+
+    void startWatchdog(String key, String threadId) {
+        renewals.compute(key + "|" + threadId, (k, r) -> {
+            Renewal result = r;
+            if (result == null) {
+                result = new Renewal();
+                long period = watchdogMillis / 3;
+                result.future = watchdog.scheduleAtFixedRate(
+                        () -> renew(k, key, threadId), period, period, TimeUnit.MILLISECONDS);
+            }
+            result.count++;
+            return result;
+        });
+    }
+
+    void stopWatchdog(String key, String threadId) {
+        renewals.computeIfPresent(key + "|" + threadId, (k, r) -> {
+            if (--r.count > 0) {
+                return r;
+            }
+            r.future.cancel(false);
+            return null;
+        });
+    }
+
+    private void renew(String renewalKey, String key, String threadId) {
+        try {
+            Long renewed = redisScriptRegistry.execute("lock_renew",
+                    Collections.singletonList(key), threadId, String.valueOf(watchdogMillis));
+            if (renewed == null || renewed == 0L) {
+                //锁已经不存在(过期或被删除)，停止续期
+                log.warn("锁{}已不再由{}持有，停止续期", key, threadId);
+                Renewal r = renewals.remove(renewalKey);
+                if (r != null) {
+                    r.future.cancel(false);
+                }
+            }
+        } catch (Exception e) {
+            //Redis暂时不可用，下次继续
+            log.warn("锁{}续期失败", key, e);
+        }
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        watchdog.shutdownNow();
+    }
+
+    private static class Waiters {
+        private final Semaphore released = new Semaphore(0);
+        private int count;
+    }
+
+    private static class LocalLock {
+        private final ReentrantLock lock = new ReentrantLock();
+        private int refs;
+    }
+
+    private static class Renewal {
+        private ScheduledFuture<?> future;
+        private int count;
+    }
+}
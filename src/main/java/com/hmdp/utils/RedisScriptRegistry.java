@@ -0,0 +1,230 @@
+package com.hmdp.utils;
+
+import cn.hutool.core.io.IoUtil;
+import cn.hutool.crypto.SecureUtil;
+import io.lettuce.core.event.connection.ConnectionActivatedEvent;
+import io.lettuce.core.resource.ClientResources;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.io.Resource;
+import org.springframework.core.io.support.PathMatchingResourcePatternResolver;
+import org.springframework.data.redis.connection.ReturnType;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.stereotype.Component;
+
+import reactor.core.Disposable;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.stream.Collectors;
+
+/**
+ * lua脚本注册中心。
+ * <p>
+ * 启动时扫描classpath下lua目录中的*.lua，按文件名(不含扩展名)注册并SCRIPT LOAD到Redis，之后一律用EVALSHA调用，
+ * 不再发送脚本内容。required-scripts中的脚本缺少任何一个都会导致启动失败，而不是等到第一次调用才发现。
+ * Redis重启或主从切换后脚本缓存会丢失：Lettuce重新建立连接时在后台重新加载全部脚本；
+ * 在此之前的调用收到NOSCRIPT时同样重新加载并重试一次。
+ * 每个脚本的调用次数和耗时记录在hmdp.redis.script指标中。
+ */
+@Slf4j
+@Component
+public class RedisScriptRegistry {
+
+    private final StringRedisTemplate stringRedisTemplate;
+    private final MeterRegistry meterRegistry;
+    private final ObjectProvider<ClientResources> clientResources;
+    private final String locations;
+    private final List<String> requiredScripts;
+    private final Map<String, Script> scripts = new ConcurrentHashMap<>();
+    //连接重建后在后台重新加载，不能在Lettuce的事件线程中执行同步命令；多个连接同时重建时只加载一次
+    private final ExecutorService reloadExecutor = Executors.newSingleThreadExecutor(r -> {
+        Thread thread = new Thread(r, "lua-script-reload");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private final AtomicBoolean reloadPending = new AtomicBoolean();
+    private Disposable reconnectSubscription;
+
+    public RedisScriptRegistry(StringRedisTemplate stringRedisTemplate, MeterRegistry meterRegistry,
+                               ObjectProvider<ClientResources> clientResources,
+                               @Value("${hmdp.redis.script-locations:classpath*:lua/*.lua}") String locations,
+                               @Value("${hmdp.redis.required-scripts:seckill,seckill_shard,seckill_stock_take,seckill_stock_return,seckill_rate_limit,lock,lock_unlock,lock_renew,unlock,id_worker_renew}")
+                                       List<String> requiredScripts) {
+        this.stringRedisTemplate = stringRedisTemplate;
+        this.meterRegistry = meterRegistry;
+        this.clientResources = clientResources;
+        this.locations = locations;
+        this.requiredScripts = requiredScripts;
+    }
+
+    @PostConstruct
+    private void init() throws IOException {
+        //1.扫描并注册全部脚本
+        Resource[] resources = new PathMatchingResourcePatternResolver().getResources(locations);
+        for (Resource resource : resources) {
+            String filename = resource.getFilename();
+            if (filename == null) {
+                continue;
+            }
+            String name = filename.substring(0, filename.length() - ".lua".length());
+            try (InputStream in = resource.getInputStream()) {
+                register(name, IoUtil.read(in, StandardCharsets.UTF_8));
+            }
+        }
+        //2.业务依赖的脚本必须都在
+        List<String> missing = requiredScripts.stream()
+                .filter(name -> !scripts.containsKey(name))
+                .collect(Collectors.toList());
+        if (!missing.isEmpty()) {
+            throw new IllegalStateException("缺少lua脚本：" + missing + "，扫描位置：" + locations);
+        }
+        //3.预加载到Redis，失败也不影响启动，连接恢复或第一次调用时会重新加载
+        try {
+            loadAll();
+        } catch (Exception e) {
+            log.warn("预加载lua脚本失败，将在连接恢复或第一次调用时加载", e);
+        }
+        //4.连接(重新)建立后重新加载，故障切换后的新主节点上没有脚本缓存
+        ClientResources lettuceResources = clientResources.getIfAvailable();
+        if (lettuceResources != null) {
+            reconnectSubscription = lettuceResources.eventBus().get()
+                    .filter(event -> event instanceof ConnectionActivatedEvent)
+                    .subscribe(event -> reloadAsync());
+        }
+    }
+
+    @PreDestroy
+    private void destroy() {
+        if (reconnectSubscription != null) {
+            reconnectSubscription.dispose();
+        }
+        reloadExecutor.shutdownNow();
+    }
+
+    private void reloadAsync() {
+        if (!reloadPending.compareAndSet(false, true)) {
+            return;
+        }
+        reloadExecutor.execute(() -> {
+            reloadPending.set(false);
+            try {
+                loadAll();
+            } catch (Exception e) {
+                log.warn("连接恢复后重新加载lua脚本失败，将在第一次调用时加载", e);
+            }
+        });
+    }
+
+    /**
+     * 注册一个脚本，同名覆盖
+     */
+    public void register(String name, String body) {
+        Timer timer = Timer.builder("hmdp.redis.script")
+                .tag("script", name)
+                .publishPercentileHistogram()
+                .register(meterRegistry);
+        scripts.put(name, new Script(name, body, SecureUtil.sha1(body), timer));
+    }
+
+    /**
+     * SCRIPT LOAD全部脚本
+     */
+    public void loadAll() {
+        for (Script script : scripts.values()) {
+            load(script);
+        }
+        log.info("已加载lua脚本：{}", scripts.keySet());
+    }
+
+    /**
+     * 执行返回整数的脚本
+     *
+     * @param name 脚本名，即文件名去掉.lua，例如seckill
+     */
+    public Long execute(String name, List<String> keys, String... args) {
+        return (Long) execute(name, ReturnType.INTEGER, keys, args);
+    }
+
+    /**
+     * 用EVALSHA执行脚本，返回值按returnType转换
+     */
+    public Object execute(String name, ReturnType returnType, List<String> keys, String... args) {
+        Script script = scripts.get(name);
+        if (script == null) {
+            throw new IllegalArgumentException("未注册的lua脚本：" + name);
+        }
+        byte[][] keysAndArgs = new byte[keys.size() + args.length][];
+        int i = 0;
+        for (String key : keys) {
+            keysAndArgs[i++] = key.getBytes(StandardCharsets.UTF_8);
+        }
+        for (String arg : args) {
+            keysAndArgs[i++] = arg.getBytes(StandardCharsets.UTF_8);
+        }
+        long begin = System.nanoTime();
+        try {
+            return evalSha(script, returnType, keys.size(), keysAndArgs);
+        } catch (RuntimeException e) {
+            if (!isNoScript(e)) {
+                throw e;
+            }
+            //Redis中的脚本缓存丢失(重启、故障切换)，重新加载后重试
+            log.warn("lua脚本[{}]不存在，重新加载", name);
+            load(script);
+            return evalSha(script, returnType, keys.size(), keysAndArgs);
+        } finally {
+            script.timer.record(System.nanoTime() - begin, TimeUnit.NANOSECONDS);
+        }
+    }
+
+    private Object evalSha(Script script, ReturnType returnType, int numKeys, byte[][] keysAndArgs) {
+        return stringRedisTemplate.execute((RedisCallback<Object>) connection ->
+                connection.scriptingCommands().evalSha(script.sha1, returnType, numKeys, keysAndArgs));
+    }
+
+    private void load(Script script) {
+        String sha1 = stringRedisTemplate.execute((RedisCallback<String>) connection ->
+                connection.scriptingCommands().scriptLoad(script.body.getBytes(StandardCharsets.UTF_8)));
+        if (!script.sha1.equals(sha1)) {
+            throw new IllegalStateException("lua脚本[" + script.name + "]的SHA1不一致：" + sha1);
+        }
+    }
+
+    private static boolean isNoScript(Throwable e) {
+        for (Throwable t = e; t != null; t = t.getCause()) {
+            if (t.getMessage() != null && t.getMessage().contains("NOSCRIPT")) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static class Script {
+        private final String name;
+        private final String body;
+        private final String sha1;
+        private final Timer timer;
+
+        private Script(String name, String body, String sha1, Timer timer) {
+            this.name = name;
+            this.body = body;
+            this.sha1 = sha1;
+            this.timer = timer;
+        }
+    }
+}
@@ -0,0 +1,182 @@
+package com.hmdp.utils;
+
+import cn.hutool.core.util.StrUtil;
+import com.hmdp.entity.VoucherOrder;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.redis.connection.Message;
+import org.springframework.data.redis.connection.MessageListener;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.listener.ChannelTopic;
+import org.springframework.data.redis.listener.RedisMessageListenerContainer;
+import org.springframework.stereotype.Component;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+import javax.annotation.PostConstruct;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 秒杀订单状态。
+ * <p>
+ * 秒杀成功时订单还只在消息队列中，状态为QUEUED；消费者入库后改为CREATED，放弃处理时改为FAILED。
+ * 状态只保存在Redis中({@code seckill:status:<userId>:<orderId>})，客户端查询不会访问数据库。
+ * 最终状态通过Redis发布订阅通知所有节点，由持有该用户SSE连接的节点推送给客户端；
+ * 一批订单只发布一条消息({@code status|userId:orderId,userId:orderId...})，秒杀高峰时消息数量与入库批次数相当。
+ */
+@Slf4j
+@Component
+public class SeckillOrderStatus implements MessageListener {
+
+    public static final String QUEUED = "QUEUED";
+    public static final String CREATED = "CREATED";
+    public static final String FAILED = "FAILED";
+
+    private static final char STATUS_SEPARATOR = '|';
+    private static final char ORDER_SEPARATOR = ',';
+
+    private final StringRedisTemplate stringRedisTemplate;
+    private final RedisMessageListenerContainer listenerContainer;
+    private final long streamTimeoutMillis;
+    //本节点上每个用户的SSE连接，一个用户可能同时打开多个页面
+    private final Map<Long, List<SseEmitter>> emitters = new ConcurrentHashMap<>();
+
+    public SeckillOrderStatus(StringRedisTemplate stringRedisTemplate,
+                              RedisMessageListenerContainer listenerContainer,
+                              @Value("${hmdp.seckill.status-stream-timeout-millis:300000}") long streamTimeoutMillis) {
+        this.stringRedisTemplate = stringRedisTemplate;
+        this.listenerContainer = listenerContainer;
+        this.streamTimeoutMillis = streamTimeoutMillis;
+    }
+
+    @PostConstruct
+    private void init() {
+        listenerContainer.addMessageListener(this, new ChannelTopic(RedisConstants.SECKILL_ORDER_STATUS_CHANNEL));
+    }
+
+    /**
+     * 秒杀成功后记录排队状态。消费者可能已经先写入了最终状态，因此只在不存在时写入
+     */
+    public void queued(Long userId, long orderId) {
+        stringRedisTemplate.opsForValue().setIfAbsent(key(userId, orderId), QUEUED,
+                RedisConstants.SECKILL_ORDER_STATUS_TTL, TimeUnit.MINUTES);
+    }
+
+    /**
+     * 记录一批订单的最终状态，并用一条消息通知各节点，在一次pipeline中完成。状态只用于展示，失败时不影响订单处理
+     */
+    public void complete(List<VoucherOrder> voucherOrders, String status) {
+        if (voucherOrders.isEmpty()) {
+            return;
+        }
+        byte[] value = status.getBytes(StandardCharsets.UTF_8);
+        byte[] channel = RedisConstants.SECKILL_ORDER_STATUS_CHANNEL.getBytes(StandardCharsets.UTF_8);
+        long ttlSeconds = TimeUnit.MINUTES.toSeconds(RedisConstants.SECKILL_ORDER_STATUS_TTL);
+        StringBuilder message = new StringBuilder(status).append(STATUS_SEPARATOR);
+        for (VoucherOrder voucherOrder : voucherOrders) {
+            message.append(voucherOrder.getUserId()).append(':').append(voucherOrder.getId()).append(ORDER_SEPARATOR);
+        }
+        message.setLength(message.length() - 1);
+        try {
+            stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+                for (VoucherOrder voucherOrder : voucherOrders) {
+                    byte[] key = key(voucherOrder.getUserId(), voucherOrder.getId()).getBytes(StandardCharsets.UTF_8);
+                    connection.stringCommands().setEx(key, ttlSeconds, value);
+                }
+                connection.publish(channel, message.toString().getBytes(StandardCharsets.UTF_8));
+                return null;
+            });
+        } catch (Exception e) {
+            log.warn("更新订单状态失败，状态：{}，数量：{}", status, voucherOrders.size(), e);
+        }
+    }
+
+    public void complete(VoucherOrder voucherOrder, String status) {
+        complete(Collections.singletonList(voucherOrder), status);
+    }
+
+    /**
+     * 查询订单状态，不存在(不是该用户的订单或已过期)时返回null
+     */
+    public String get(Long userId, Long orderId) {
+        return stringRedisTemplate.opsForValue().get(key(userId, orderId));
+    }
+
+    /**
+     * 打开用户的订单状态推送。指定了订单且该订单已经有最终状态时立即推送一次，避免订阅前状态已经变化
+     */
+    public SseEmitter subscribe(Long userId, Long orderId) {
+        SseEmitter emitter = new SseEmitter(streamTimeoutMillis);
+        emitters.compute(userId, (id, list) -> {
+            List<SseEmitter> result = list == null ? new CopyOnWriteArrayList<>() : list;
+            result.add(emitter);
+            return result;
+        });
+        Runnable remove = () -> removeEmitter(userId, emitter);
+        emitter.onCompletion(remove);
+        emitter.onTimeout(remove);
+        emitter.onError(e -> remove.run());
+        if (orderId != null) {
+            String status = get(userId, orderId);
+            if (status != null && !QUEUED.equals(status)) {
+                send(userId, emitter, orderId, status);
+            }
+        }
+        return emitter;
+    }
+
+    @Override
+    public void onMessage(Message message, byte[] pattern) {
+        //本节点没有SSE连接，不需要解析
+        if (emitters.isEmpty()) {
+            return;
+        }
+        //status|userId:orderId,userId:orderId...
+        String body = new String(message.getBody(), StandardCharsets.UTF_8);
+        int index = body.indexOf(STATUS_SEPARATOR);
+        String status = body.substring(0, index);
+        for (String order : StrUtil.split(body.substring(index + 1), ORDER_SEPARATOR)) {
+            List<String> parts = StrUtil.split(order, ':');
+            Long userId = Long.valueOf(parts.get(0));
+            List<SseEmitter> list = emitters.get(userId);
+            if (list == null) {
+                continue;
+            }
+            Long orderId = Long.valueOf(parts.get(1));
+            for (SseEmitter emitter : list) {
+                send(userId, emitter, orderId, status);
+            }
+        }
+    }
+
+    private void send(Long userId, SseEmitter emitter, Long orderId, String status) {
+        Map<String, Object> data = new HashMap<>(2);
+        data.put("orderId", orderId);
+        data.put("status", status);
+        try {
+            emitter.send(SseEmitter.event().name("order-status").data(data));
+        } catch (IOException | IllegalStateException e) {
+            //客户端已断开
+            removeEmitter(userId, emitter);
+        }
+    }
+
+    private void removeEmitter(Long userId, SseEmitter emitter) {
+        emitters.computeIfPresent(userId, (id, list) -> {
+            list.remove(emitter);
+            return list.isEmpty() ? null : list;
+        });
+    }
+
+    private static String key(Long userId, Long orderId) {
+        return RedisConstants.SECKILL_ORDER_STATUS_KEY + userId + ":" + orderId;
+    }
+}
@@ -0,0 +1,50 @@
+package com.hmdp.utils;
+
+import cn.hutool.json.JSONUtil;
+import com.hmdp.dto.Result;
+import com.hmdp.dto.UserDTO;
+import org.springframework.http.MediaType;
+import org.springframework.web.servlet.HandlerInterceptor;
+import org.springframework.web.servlet.HandlerMapping;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+
+/**
+ * 秒杀下单的限流拦截器，在进入业务逻辑之前拒绝超出限制的请求，
+ * 避免突发流量占满Redis连接池，影响同一节点上的其他接口
+ */
+public class SeckillRateLimitInterceptor implements HandlerInterceptor {
+
+    private final SeckillRateLimiter seckillRateLimiter;
+
+    public SeckillRateLimitInterceptor(SeckillRateLimiter seckillRateLimiter) {
+        this.seckillRateLimiter = seckillRateLimiter;
+    }
+
+    @Override
+    public boolean preHandle(HttpServletRequest request, HttpServletResponse response, Object handler) throws Exception {
+        //只限制下单请求(POST /voucher-order/seckill/{id})，订单状态查询不限制
+        if (!"POST".equalsIgnoreCase(request.getMethod())) {
+            return true;
+        }
+        @SuppressWarnings("unchecked")
+        Map<String, String> variables = (Map<String, String>) request.getAttribute(HandlerMapping.URI_TEMPLATE_VARIABLES_ATTRIBUTE);
+        UserDTO user = UserHolder.getUser();
+        if (variables == null || variables.get("id") == null || user == null) {
+            return true;
+        }
+        Long voucherId = Long.valueOf(variables.get("id"));
+        if (seckillRateLimiter.tryAcquire(voucherId, user.getId())) {
+            return true;
+        }
+        //超出限制，直接返回繁忙
+        response.setStatus(429);
+        response.setContentType(MediaType.APPLICATION_JSON_VALUE);
+        response.setCharacterEncoding(StandardCharsets.UTF_8.name());
+        response.getWriter().write(JSONUtil.toJsonStr(Result.fail("系统繁忙，请稍后再试")));
+        return false;
+    }
+}
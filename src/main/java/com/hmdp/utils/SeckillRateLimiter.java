@@ -0,0 +1,181 @@
+package com.hmdp.utils;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.stereotype.Component;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 秒杀限流，每张券一个令牌桶，每个用户在每张券上一个令牌桶，两个桶都有令牌才放行。
+ * <p>
+ * 默认在本节点内存中限流(local)，限制的是单个节点的请求数，不占用Redis连接；
+ * mode=redis时令牌桶保存在Redis中，由lua脚本原子地判断，限制的是所有节点合计的请求数。
+ * 每张券的限流值在新增秒杀券时指定，保存在{@code seckill:limit:<voucherId>}中，未指定时使用默认值。
+ */
+@Component
+public class SeckillRateLimiter {
+
+    private static final String RATE = "rate";
+    private static final String USER_RATE = "userRate";
+
+    private final StringRedisTemplate stringRedisTemplate;
+    private final RedisScriptRegistry redisScriptRegistry;
+    private final boolean global;
+    private final int defaultRate;
+    private final int defaultUserRate;
+
+    //每张券的限流值，本地缓存一份，修改后最多10秒生效
+    private final Cache<Long, int[]> limits = Caffeine.newBuilder()
+            .maximumSize(10000)
+            .expireAfterWrite(10, TimeUnit.SECONDS)
+            .build();
+    //本地模式的令牌桶，空闲一段时间后回收，再次使用时是满的
+    private final Cache<String, TokenBucket> buckets = Caffeine.newBuilder()
+            .maximumSize(100000)
+            .expireAfterAccess(1, TimeUnit.MINUTES)
+            .build();
+
+    public SeckillRateLimiter(StringRedisTemplate stringRedisTemplate, RedisScriptRegistry redisScriptRegistry,
+                              @Value("${hmdp.seckill.rate-limit.mode:local}") String mode,
+                              @Value("${hmdp.seckill.rate-limit.default-rate:1000}") int defaultRate,
+                              @Value("${hmdp.seckill.rate-limit.default-user-rate:2}") int defaultUserRate) {
+        this.stringRedisTemplate = stringRedisTemplate;
+        this.redisScriptRegistry = redisScriptRegistry;
+        this.global = "redis".equalsIgnoreCase(mode);
+        this.defaultRate = defaultRate;
+        this.defaultUserRate = defaultUserRate;
+    }
+
+    /**
+     * 保存秒杀券的限流值，为空的使用默认值
+     */
+    public void initLimit(Long voucherId, Integer rate, Integer userRate) {
+        Map<String, String> values = new HashMap<>(2);
+        if (rate != null) {
+            values.put(RATE, rate.toString());
+        }
+        if (userRate != null) {
+            values.put(USER_RATE, userRate.toString());
+        }
+        if (values.isEmpty()) {
+            return;
+        }
+        stringRedisTemplate.opsForHash().putAll(RedisConstants.SECKILL_LIMIT_KEY + voucherId, values);
+        limits.invalidate(voucherId);
+    }
+
+    /**
+     * 尝试获取一次秒杀的许可，返回false表示请求过多，应直接拒绝
+     */
+    public boolean tryAcquire(Long voucherId, Long userId) {
+        int[] limit = limits.get(voucherId, this::loadLimit);
+        int rate = limit[0];
+        int userRate = limit[1];
+        //限流值小于等于0表示不限制
+        if (global) {
+            return tryAcquireGlobal(voucherId, userId, rate, userRate);
+        }
+        //先判断用户，用户被限流时不消耗这张券的令牌
+        TokenBucket userBucket = userRate > 0 ? bucket(voucherId + ":" + userId, userRate) : null;
+        if (userBucket != null && !userBucket.tryAcquire()) {
+            return false;
+        }
+        TokenBucket voucherBucket = rate > 0 ? bucket(voucherId.toString(), rate) : null;
+        if (voucherBucket != null && !voucherBucket.tryAcquire()) {
+            //这张券被限流，归还用户的令牌
+            if (userBucket != null) {
+                userBucket.release();
+            }
+            return false;
+        }
+        return true;
+    }
+
+    private boolean tryAcquireGlobal(Long voucherId, Long userId, int rate, int userRate) {
+        //两个桶在同一个lua脚本中判断，key使用相同的hash tag
+        String tag = "{" + voucherId + "}";
+        List<String> keys;
+        String[] args;
+        if (rate > 0 && userRate > 0) {
+            keys = Arrays.asList(RedisConstants.SECKILL_BUCKET_KEY + tag + ":" + userId, RedisConstants.SECKILL_BUCKET_KEY + tag);
+            args = new String[]{String.valueOf(userRate), String.valueOf(userRate), String.valueOf(rate), String.valueOf(rate)};
+        } else if (userRate > 0) {
+            keys = Arrays.asList(RedisConstants.SECKILL_BUCKET_KEY + tag + ":" + userId);
+            args = new String[]{String.valueOf(userRate), String.valueOf(userRate)};
+        } else if (rate > 0) {
+            keys = Arrays.asList(RedisConstants.SECKILL_BUCKET_KEY + tag);
+            args = new String[]{String.valueOf(rate), String.valueOf(rate)};
+        } else {
+            return true;
+        }
+        Long result = redisScriptRegistry.execute("seckill_rate_limit", keys, args);
+        return result != null && result == 1L;
+    }
+
+    private TokenBucket bucket(String key, int rate) {
+        TokenBucket bucket = buckets.get(key, k -> new TokenBucket(rate));
+        if (bucket.rate != rate) {
+            //限流值修改过，换一个新桶
+            bucket = new TokenBucket(rate);
+            buckets.put(key, bucket);
+        }
+        return bucket;
+    }
+
+    private int[] loadLimit(Long voucherId) {
+        Map<Object, Object> values = stringRedisTemplate.opsForHash().entries(RedisConstants.SECKILL_LIMIT_KEY + voucherId);
+        Object rate = values.get(RATE);
+        Object userRate = values.get(USER_RATE);
+        return new int[]{
+                rate == null ? defaultRate : Integer.parseInt(rate.toString()),
+                userRate == null ? defaultUserRate : Integer.parseInt(userRate.toString())
+        };
+    }
+
+    /**
+     * 本地令牌桶，每秒生成rate个令牌，容量为rate(最多允许1秒的突发)
+     */
+    static class TokenBucket {
+        private final int rate;
+        private double tokens;
+        private long lastNanos;
+
+        TokenBucket(int rate) {
+            this(rate, System.nanoTime());
+        }
+
+        TokenBucket(int rate, long nowNanos) {
+            this.rate = rate;
+            this.tokens = rate;
+            this.lastNanos = nowNanos;
+        }
+
+        boolean tryAcquire() {
+            return tryAcquire(System.nanoTime());
+        }
+
+        synchronized boolean tryAcquire(long nowNanos) {
+            //时间不会倒退，多线程下取到的now可能比lastNanos略小
+            if (nowNanos > lastNanos) {
+                tokens = Math.min(rate, tokens + (nowNanos - lastNanos) * rate / 1e9);
+                lastNanos = nowNanos;
+            }
+            if (tokens < 1) {
+                return false;
+            }
+            tokens -= 1;
+            return true;
+        }
+
+        synchronized void release() {
+            tokens = Math.min(rate, tokens + 1);
+        }
+    }
+}
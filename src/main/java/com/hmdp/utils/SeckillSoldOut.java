@@ -0,0 +1,86 @@
+package com.hmdp.utils;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.redis.connection.Message;
+import org.springframework.data.redis.connection.MessageListener;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.listener.ChannelTopic;
+import org.springframework.data.redis.listener.RedisMessageListenerContainer;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 本地的秒杀券售罄标记。
+ * <p>
+ * 秒杀脚本返回库存不足后标记售罄，并通过Redis发布订阅通知其他节点，之后对这张券的请求
+ * 在本地直接拒绝，不再执行lua脚本。补充库存时清除标记。标记带有存活时间，
+ * 即使清除通知丢失(或与补库存并发的请求又标记了售罄)，过期后也会重新向Redis确认。
+ */
+@Slf4j
+@Component
+public class SeckillSoldOut implements MessageListener {
+
+    private static final String SOLD_OUT = "+";
+    private static final String CLEARED = "-";
+
+    private final StringRedisTemplate stringRedisTemplate;
+    private final RedisMessageListenerContainer listenerContainer;
+    private final Cache<Long, Boolean> soldOut;
+
+    public SeckillSoldOut(StringRedisTemplate stringRedisTemplate,
+                          RedisMessageListenerContainer listenerContainer,
+                          @Value("${hmdp.seckill.sold-out-ttl-seconds:10}") long ttlSeconds) {
+        this.stringRedisTemplate = stringRedisTemplate;
+        this.listenerContainer = listenerContainer;
+        this.soldOut = Caffeine.newBuilder()
+                .maximumSize(10000)
+                .expireAfterWrite(ttlSeconds, TimeUnit.SECONDS)
+                .build();
+    }
+
+    @PostConstruct
+    private void init() {
+        listenerContainer.addMessageListener(this, new ChannelTopic(RedisConstants.SECKILL_SOLD_OUT_CHANNEL));
+    }
+
+    public boolean isSoldOut(Long voucherId) {
+        return soldOut.getIfPresent(voucherId) != null;
+    }
+
+    /**
+     * 标记售罄，并通知其他节点
+     */
+    public void markSoldOut(Long voucherId) {
+        if (isSoldOut(voucherId)) {
+            return;
+        }
+        soldOut.put(voucherId, Boolean.TRUE);
+        stringRedisTemplate.convertAndSend(RedisConstants.SECKILL_SOLD_OUT_CHANNEL, SOLD_OUT + voucherId);
+    }
+
+    /**
+     * 补充库存后清除标记，并通知其他节点
+     */
+    public void clear(Long voucherId) {
+        soldOut.invalidate(voucherId);
+        stringRedisTemplate.convertAndSend(RedisConstants.SECKILL_SOLD_OUT_CHANNEL, CLEARED + voucherId);
+    }
+
+    @Override
+    public void onMessage(Message message, byte[] pattern) {
+        String body = new String(message.getBody(), StandardCharsets.UTF_8);
+        log.debug("收到秒杀券售罄通知：{}", body);
+        Long voucherId = Long.valueOf(body.substring(1));
+        if (body.startsWith(SOLD_OUT)) {
+            soldOut.put(voucherId, Boolean.TRUE);
+        } else {
+            soldOut.invalidate(voucherId);
+        }
+    }
+}
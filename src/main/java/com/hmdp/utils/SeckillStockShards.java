@@ -0,0 +1,255 @@
+package com.hmdp.utils;
+
+import cn.hutool.core.util.StrUtil;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 秒杀库存分片。
+ * <p>
+ * 超热门的秒杀券可以把库存拆到K个分片中：
+ * <pre>
+ * seckill:stock:<voucherId>:{s0} ... seckill:stock:<voucherId>:{s(K-1)}
+ * </pre>
+ * 第i个分片的库存、订单集合和消息队列使用相同的hash tag {s<i>}，在Redis集群中落在同一个槽，
+ * 因此同一个分片上的操作仍然可以在一个lua脚本中原子完成，不同分片分散在不同的节点上。
+ * 分片数保存在{@code seckill:shards:<voucherId>}中，不存在表示不分片。
+ * <p>
+ * 用户的固定分片没有库存时，从其他分片扣库存再回到固定分片记录订单，两步在不同的槽，无法在一个脚本中完成。
+ * 扣库存时在被扣的分片中同时记录一条转移记录({@code seckill:transfer:<voucherId>:{s<i>}})，
+ * 请求结束时删除(下单失败则同时归还库存)；请求中途宕机或超时留下的记录由{@link #reconcileTransfers()}处理：
+ * 固定分片中已经有这个用户的订单则确认，否则归还库存。
+ * 仍然存在的误差：对账时恰好遇到卡住超过transfer-timeout-millis的请求，
+ * 或者同一用户的并发请求已在固定分片下单而本次请求中途宕机，此时最多一个库存的偏差。
+ */
+@Slf4j
+@Component
+public class SeckillStockShards {
+
+    private final StringRedisTemplate stringRedisTemplate;
+    private final RedisScriptRegistry redisScriptRegistry;
+    //允许的最大分片数，同时决定了消费者需要监听的分片队列数量
+    private final int maxShards;
+    //转移记录超过这个时间仍未结束，认为请求已经中断
+    private final long transferTimeoutMillis;
+    //分片数在创建秒杀券时确定，之后不会变化，本地缓存一份
+    private final Cache<Long, Integer> shardCounts = Caffeine.newBuilder()
+            .maximumSize(10000)
+            .expireAfterWrite(10, TimeUnit.SECONDS)
+            .build();
+
+    public SeckillStockShards(StringRedisTemplate stringRedisTemplate, RedisScriptRegistry redisScriptRegistry,
+                              @Value("${hmdp.seckill.max-stock-shards:8}") int maxShards,
+                              @Value("${hmdp.seckill.transfer-timeout-millis:60000}") long transferTimeoutMillis) {
+        this.stringRedisTemplate = stringRedisTemplate;
+        this.redisScriptRegistry = redisScriptRegistry;
+        this.maxShards = maxShards;
+        this.transferTimeoutMillis = transferTimeoutMillis;
+    }
+
+    public int getMaxShards() {
+        return maxShards;
+    }
+
+    /**
+     * 初始化秒杀库存
+     *
+     * @param shards 分片数，小于等于1时不分片
+     */
+    public void initStock(Long voucherId, int stock, int shards) {
+        if (shards <= 1) {
+            stringRedisTemplate.opsForValue().set(RedisConstants.SECKILL_STOCK_KEY + voucherId, String.valueOf(stock));
+            return;
+        }
+        if (shards > maxShards) {
+            throw new IllegalArgumentException("库存分片数不能超过" + maxShards);
+        }
+        //平均分配，余数分给前面的分片，总数保持不变
+        Map<String, String> values = new HashMap<>(shards);
+        for (int i = 0; i < shards; i++) {
+            int shardStock = stock / shards + (i < stock % shards ? 1 : 0);
+            values.put(stockKey(voucherId, i), String.valueOf(shardStock));
+        }
+        //集群模式下各分片在不同的槽，逐个写入
+        values.forEach((key, value) -> stringRedisTemplate.opsForValue().set(key, value));
+        stringRedisTemplate.opsForValue().set(RedisConstants.SECKILL_SHARDS_KEY + voucherId, String.valueOf(shards));
+        stringRedisTemplate.opsForSet().add(RedisConstants.SECKILL_SHARDED_KEY, voucherId.toString());
+        shardCounts.put(voucherId, shards);
+    }
+
+    /**
+     * 从其他分片扣一个库存，同时在该分片记录这次转移，返回是否扣减成功
+     */
+    public boolean takeStock(Long voucherId, int shard, long orderId, Long userId, int home) {
+        Long taken = redisScriptRegistry.execute("seckill_stock_take",
+                Arrays.asList(stockKey(voucherId, shard), transferKey(voucherId, shard)),
+                transferRecord(orderId, userId, home), String.valueOf(System.currentTimeMillis()));
+        return taken != null && taken == 1L;
+    }
+
+    /**
+     * 结束一次转移：删除转移记录，giveBack为true时同时归还库存
+     */
+    public void finishTransfer(Long voucherId, int shard, long orderId, Long userId, int home, boolean giveBack) {
+        redisScriptRegistry.execute("seckill_stock_return",
+                Arrays.asList(stockKey(voucherId, shard), transferKey(voucherId, shard)),
+                transferRecord(orderId, userId, home), giveBack ? "1" : "0");
+    }
+
+    /**
+     * 对账：处理超时未结束的转移记录。固定分片中已经有这个用户的订单则只删除记录，否则归还库存。
+     * 多个节点同时对账时，同一条记录只会被处理一次
+     */
+    @Scheduled(fixedDelayString = "${hmdp.seckill.transfer-timeout-millis:60000}")
+    public void reconcileTransfers() {
+        Set<String> voucherIds = stringRedisTemplate.opsForSet().members(RedisConstants.SECKILL_SHARDED_KEY);
+        if (voucherIds == null) {
+            return;
+        }
+        long before = System.currentTimeMillis() - transferTimeoutMillis;
+        for (String id : voucherIds) {
+            Long voucherId = Long.valueOf(id);
+            int shards = shardCount(voucherId);
+            for (int shard = 0; shard < shards; shard++) {
+                try {
+                    reconcileTransfers(voucherId, shard, before);
+                } catch (Exception e) {
+                    log.warn("秒杀券{}分片{}对账失败", voucherId, shard, e);
+                }
+            }
+        }
+    }
+
+    private void reconcileTransfers(Long voucherId, int shard, long before) {
+        Set<String> records = stringRedisTemplate.opsForZSet().rangeByScore(transferKey(voucherId, shard), 0, before);
+        if (records == null) {
+            return;
+        }
+        for (String record : records) {
+            //订单id:用户id:固定分片
+            String[] parts = record.split(":");
+            Long userId = Long.valueOf(parts[1]);
+            int home = Integer.parseInt(parts[2]);
+            boolean recorded = Boolean.TRUE.equals(
+                    stringRedisTemplate.opsForSet().isMember(orderKey(voucherId, home), userId.toString()));
+            finishTransfer(voucherId, shard, Long.parseLong(parts[0]), userId, home, !recorded);
+            log.warn("秒杀券{}分片{}的转移记录{}超时未结束，{}", voucherId, shard, record, recorded ? "订单已记录" : "归还库存");
+        }
+    }
+
+    /**
+     * 保存秒杀时间窗口，秒杀脚本按Redis服务器时间判断。分片模式下每个分片保存一份，与分片库存在同一个槽
+     */
+    public void initTimeWindow(Long voucherId, LocalDateTime beginTime, LocalDateTime endTime, int shards) {
+        Map<String, String> window = new HashMap<>(2);
+        if (beginTime != null) {
+            window.put("begin", String.valueOf(toEpochMilli(beginTime)));
+        }
+        if (endTime != null) {
+            window.put("end", String.valueOf(toEpochMilli(endTime)));
+        }
+        if (window.isEmpty()) {
+            return;
+        }
+        if (shards <= 1) {
+            stringRedisTemplate.opsForHash().putAll(RedisConstants.SECKILL_TIME_KEY + voucherId, window);
+            return;
+        }
+        for (int i = 0; i < shards; i++) {
+            stringRedisTemplate.opsForHash().putAll(timeKey(voucherId, i), window);
+        }
+    }
+
+    /**
+     * 补充库存，分片模式下平均加到各个分片
+     */
+    public void addStock(Long voucherId, int count) {
+        int shards = shardCount(voucherId);
+        if (shards <= 1) {
+            stringRedisTemplate.opsForValue().increment(RedisConstants.SECKILL_STOCK_KEY + voucherId, count);
+            return;
+        }
+        for (int i = 0; i < shards; i++) {
+            int shardCount = count / shards + (i < count % shards ? 1 : 0);
+            if (shardCount > 0) {
+                stringRedisTemplate.opsForValue().increment(stockKey(voucherId, i), shardCount);
+            }
+        }
+    }
+
+    /**
+     * 查询分片数，0表示不分片
+     */
+    public int shardCount(Long voucherId) {
+        return shardCounts.get(voucherId, id -> {
+            String value = stringRedisTemplate.opsForValue().get(RedisConstants.SECKILL_SHARDS_KEY + id);
+            return StrUtil.isBlank(value) ? 0 : Integer.parseInt(value);
+        });
+    }
+
+    /**
+     * 用户固定使用的分片，该用户的订单只记录在这个分片中，从而一人一单只需要检查一个分片
+     */
+    public int homeShard(Long userId, int shards) {
+        return (int) Math.floorMod(userId, (long) shards);
+    }
+
+    public String stockKey(Long voucherId, int shard) {
+        return RedisConstants.SECKILL_STOCK_KEY + voucherId + ":" + hashTag(shard);
+    }
+
+    public String orderKey(Long voucherId, int shard) {
+        return RedisConstants.SECKILL_ORDER_KEY + voucherId + ":" + hashTag(shard);
+    }
+
+    public String transferKey(Long voucherId, int shard) {
+        return RedisConstants.SECKILL_TRANSFER_KEY + voucherId + ":" + hashTag(shard);
+    }
+
+    public String timeKey(Long voucherId, int shard) {
+        return RedisConstants.SECKILL_TIME_KEY + voucherId + ":" + hashTag(shard);
+    }
+
+    public String streamKey(int shard) {
+        return RedisConstants.SECKILL_ORDER_STREAM + ":" + hashTag(shard);
+    }
+
+    /**
+     * 消费者需要监听的全部订单队列：不分片的队列 + 每个分片的队列
+     */
+    public List<String> allStreamKeys() {
+        List<String> keys = new ArrayList<>(maxShards + 1);
+        keys.add(RedisConstants.SECKILL_ORDER_STREAM);
+        for (int i = 0; i < maxShards; i++) {
+            keys.add(streamKey(i));
+        }
+        return keys;
+    }
+
+    private static String transferRecord(long orderId, Long userId, int home) {
+        return orderId + ":" + userId + ":" + home;
+    }
+
+    private static long toEpochMilli(LocalDateTime time) {
+        return time.atZone(ZoneId.systemDefault()).toInstant().toEpochMilli();
+    }
+
+    private static String hashTag(int shard) {
+        return "{s" + shard + "}";
+    }
+}
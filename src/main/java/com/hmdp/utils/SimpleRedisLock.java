@@ -1,69 +1,109 @@
 package com.hmdp.utils;
 
 import cn.hutool.core.lang.UUID;
-import org.springframework.core.io.ClassPathResource;
-import org.springframework.data.redis.core.StringRedisTemplate;
-import org.springframework.data.redis.core.script.DefaultRedisScript;
 
-
-import java.util.Collection;
+import java.util.Arrays;
 import java.util.Collections;
+import java.util.concurrent.Semaphore;
 import java.util.concurrent.TimeUnit;
 
 /**
+ * 基于Redis的可重入分布式锁。
+ * <p>
+ * 锁是一个hash(lock:名称)，field为线程标识，value为重入次数，获取、释放都在lua脚本中完成。
+ * leaseTime为-1时由看门狗定期续期，持有多久都不会过期；进程宕机后看门狗停止，锁在超时后自动释放。
+ * 获取失败的线程订阅释放通知，锁被释放时立即被唤醒重试，最长等待锁的剩余时间，不需要轮询。
+ * 通过{@link RedisLockFactory#getLock(String)}创建。
+ *
  * @author wzy
  * @creat 2023-07-21-13:04
  */
 public class SimpleRedisLock implements ILock {
 
-    private StringRedisTemplate stringRedisTemplate;
+    private RedisScriptRegistry redisScriptRegistry; //lua脚本由注册中心加载，用EVALSHA调用
+    private RedisLockFactory redisLockFactory; //看门狗和释放通知
     private String name; //具体业务名称，将前缀和业务名拼接之后当做Key
     private static final String KEY_PREFIX = "lock:";//锁的前缀
     private static final String ID_PREFIX = UUID.randomUUID().toString(true) + "-";//
+    private long leaseMillis; //本次持有锁的超时时间，重入和释放时用来重置过期时间
 
-    private static final DefaultRedisScript<Long> UNLLOCK_SCRIPT;
-    static {
-        UNLLOCK_SCRIPT = new DefaultRedisScript<>();
-        UNLLOCK_SCRIPT.setLocation(new ClassPathResource("unlock.lua"));
-        UNLLOCK_SCRIPT.setResultType(Long.class);
-    }
-
-    public SimpleRedisLock(StringRedisTemplate stringRedisTemplate, String name) {
-        this.stringRedisTemplate = stringRedisTemplate;
+    public SimpleRedisLock(RedisScriptRegistry redisScriptRegistry, RedisLockFactory redisLockFactory, String name) {
+        this.redisScriptRegistry = redisScriptRegistry;
+        this.redisLockFactory = redisLockFactory;
         this.name = name;
+        this.leaseMillis = redisLockFactory.getWatchdogMillis();
     }
 
     @Override
     public boolean tryLock(long timeoutSec) {
-        //获取线程标识
-        String threadId = ID_PREFIX + Thread.currentThread().getId();
-        //获取锁
-        Boolean success = stringRedisTemplate.opsForValue()
-                .setIfAbsent(KEY_PREFIX + name, threadId + "", timeoutSec, TimeUnit.SECONDS);
-        //自动拆箱可能会出现null，这样写避免空指针
-        return success.TRUE.equals(success);
+        //不等待，固定超时时间，不续期
+        leaseMillis = TimeUnit.SECONDS.toMillis(timeoutSec);
+        return tryAcquire() < 0;
+    }
+
+    @Override
+    public boolean tryLock(long waitTime, long leaseTime, TimeUnit unit) throws InterruptedException {
+        boolean watchdog = leaseTime == -1;
+        leaseMillis = watchdog ? redisLockFactory.getWatchdogMillis() : unit.toMillis(leaseTime);
+        long deadline = System.nanoTime() + unit.toNanos(waitTime);
+        //1.直接获取
+        long ttl = tryAcquire();
+        if (ttl < 0) {
+            return acquired(watchdog);
+        }
+        if (waitTime <= 0) {
+            return false;
+        }
+        //2.订阅释放通知，先订阅再重试，不会错过订阅之前的释放
+        Semaphore released = redisLockFactory.subscribe(name);
+        try {
+            while (true) {
+                ttl = tryAcquire();
+                if (ttl < 0) {
+                    return acquired(watchdog);
+                }
+                long remaining = TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime());
+                if (remaining <= 0) {
+                    return false;
+                }
+                //3.等待释放通知，最多等到锁过期(持有者宕机时收不到通知)或等待超时
+                released.tryAcquire(ttl > 0 ? Math.min(ttl, remaining) : remaining, TimeUnit.MILLISECONDS);
+            }
+        } finally {
+            redisLockFactory.unsubscribe(name);
+        }
     }
 
     @Override
     public void unlock() {
-        //调用lua脚本
-        stringRedisTemplate.execute(
-                UNLLOCK_SCRIPT,
-                Collections.singletonList(KEY_PREFIX+name),
-                ID_PREFIX + Thread.currentThread().getId());
+        //调用lua脚本：重入次数-1，减到0时删除并通知等待的线程
+        Long result = redisScriptRegistry.execute(
+                "lock_unlock",
+                Arrays.asList(KEY_PREFIX + name, RedisConstants.LOCK_UNLOCK_CHANNEL),
+                threadId(), String.valueOf(leaseMillis), name);
+        if (result != null && result >= 0) {
+            redisLockFactory.stopWatchdog(KEY_PREFIX + name, threadId());
+        }
     }
 
+    //获取成功(包括重入)返回负数，失败返回锁的剩余时间(毫秒)
+    private long tryAcquire() {
+        Long ttl = redisScriptRegistry.execute(
+                "lock",
+                Collections.singletonList(KEY_PREFIX + name),
+                threadId(), String.valueOf(leaseMillis));
+        return ttl == null ? 0 : ttl;
+    }
 
-/*  @Override
-    public void unlock() {
-        //获取线程标识
-        String threadId = ID_PREFIX + Thread.currentThread().getId();
-        //获取锁中的标识
-        String id = stringRedisTemplate.opsForValue().get(KEY_PREFIX + name);
-        //判断标识是否一致
-        if (threadId.equals(id)){
-            //释放锁
-            stringRedisTemplate.delete(KEY_PREFIX + name);
+    private boolean acquired(boolean watchdog) {
+        if (watchdog) {
+            redisLockFactory.startWatchdog(KEY_PREFIX + name, threadId());
         }
-    }*/
+        return true;
+    }
+
+    //获取线程标识
+    private static String threadId() {
+        return ID_PREFIX + Thread.currentThread().getId();
+    }
 }
@@ -0,0 +1,99 @@
+package com.hmdp.utils;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.function.Supplier;
+
+/**
+ * 进程内的请求合并(single-flight)。
+ * <p>
+ * 同一个key同一时刻只会有一个线程真正执行加载逻辑，其余并发调用者等待同一个future，
+ * 拿到同一份结果(或同一个异常)。加载结束后立即移除，不做任何结果缓存。
+ */
+public class SingleFlight {
+
+    private final ConcurrentHashMap<String, CompletableFuture<Object>> calls = new ConcurrentHashMap<>();
+
+    /**
+     * 执行加载逻辑，相同key的并发调用只会执行一次
+     *
+     * @param key    合并的维度，一般就是缓存key
+     * @param loader 真正的加载逻辑
+     * @return 加载结果
+     */
+    @SuppressWarnings("unchecked")
+    public <T> T execute(String key, Supplier<T> loader) {
+        CompletableFuture<Object> future = new CompletableFuture<>();
+        CompletableFuture<Object> existing = calls.putIfAbsent(key, future);
+        if (existing != null) {
+            //已经有线程在加载，等待它的结果
+            return (T) await(existing);
+        }
+        return run(key, future, loader);
+    }
+
+    /**
+     * 执行加载逻辑，相同key的并发调用只会执行一次；等待其他线程的结果时最多等待timeout，
+     * 超时后返回fallback的结果(例如旧数据，或者直接查询数据库)，不会无限期等待
+     */
+    @SuppressWarnings("unchecked")
+    public <T> T execute(String key, Supplier<T> loader, long timeout, TimeUnit unit, Supplier<T> fallback) {
+        CompletableFuture<Object> future = new CompletableFuture<>();
+        CompletableFuture<Object> existing = calls.putIfAbsent(key, future);
+        if (existing == null) {
+            return run(key, future, loader);
+        }
+        try {
+            return (T) existing.get(timeout, unit);
+        } catch (TimeoutException e) {
+            return fallback.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException(e);
+        } catch (ExecutionException e) {
+            //已经完成，只是为了还原加载线程抛出的原始异常
+            return (T) await(existing);
+        }
+    }
+
+    //由抢到key的线程执行加载，结束后移除
+    private <T> T run(String key, CompletableFuture<Object> future, Supplier<T> loader) {
+        try {
+            T value = loader.get();
+            future.complete(value);
+            return value;
+        } catch (RuntimeException | Error e) {
+            future.completeExceptionally(e);
+            throw e;
+        } finally {
+            calls.remove(key, future);
+        }
+    }
+
+    /**
+     * 判断某个key当前是否正在加载
+     */
+    public boolean isInFlight(String key) {
+        return calls.containsKey(key);
+    }
+
+    private static Object await(CompletableFuture<Object> future) {
+        try {
+            return future.join();
+        } catch (CompletionException e) {
+            //还原加载线程抛出的原始异常
+            Throwable cause = e.getCause();
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw e;
+        }
+    }
+}
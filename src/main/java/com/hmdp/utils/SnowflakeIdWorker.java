@@ -0,0 +1,187 @@
+package com.hmdp.utils;
+
+import cn.hutool.core.lang.UUID;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.util.Collections;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 完全在本地生成的全局唯一id，生成时不访问Redis：
+ * <pre>
+ * 31位时间戳(秒) | 1 | 10位毫秒 | 9位worker id | 12位毫秒内序列号
+ * </pre>
+ * 高32位与{@link RedisIdWorker}相同(同一时刻生成的id大小相近，切换模式后仍然递增)；
+ * 低32位的最高位固定为1，而RedisIdWorker每天的序列号不会达到2^31，两种模式生成的id不会重复。
+ * <p>
+ * worker id在启动时从Redis租用({@code id:worker:<n>})，定期续约。续约失败说明租约已经丢失，
+ * 重新租用之前拒绝生成id，避免与其他节点使用相同的worker id；Redis不可用无法续约时，
+ * 本地记录的租约到期后同样拒绝生成id，直到重新续约或租用成功。
+ * 检测到时钟回拨时，小幅回拨等待时钟追上，超过max-backward-millis则拒绝生成id。
+ */
+@Slf4j
+@Component
+@ConditionalOnProperty(name = "hmdp.id.mode", havingValue = "snowflake")
+public class SnowflakeIdWorker implements IdGenerator {
+
+    private static final long WORKER_BITS = 9L;
+    private static final long SEQUENCE_BITS = 12L;
+    private static final long MILLIS_BITS = 10L;
+    private static final long MAX_WORKER_ID = (1L << WORKER_BITS) - 1;
+    private static final long MAX_SEQUENCE = (1L << SEQUENCE_BITS) - 1;
+    private static final long SNOWFLAKE_FLAG = 1L << (MILLIS_BITS + WORKER_BITS + SEQUENCE_BITS);
+
+    private final StringRedisTemplate stringRedisTemplate;
+    private final RedisScriptRegistry redisScriptRegistry;
+    private final long leaseSeconds;
+    private final long maxBackwardMillis;
+    //与RedisIdWorker一样按本地时区计算秒数
+    private final long zoneOffsetMillis;
+    //本节点的标识，保存在worker id的key中
+    private final String token = UUID.randomUUID().toString(true);
+
+    //-1表示当前没有租约
+    private volatile long workerId = -1;
+    //租约的到期时间(System.nanoTime)，按发起请求前的时间计算，比Redis中的实际过期时间略早
+    private volatile long leaseDeadline;
+    private long lastMillis = -1;
+    private long sequence;
+
+    public SnowflakeIdWorker(StringRedisTemplate stringRedisTemplate, RedisScriptRegistry redisScriptRegistry,
+                             @Value("${hmdp.id.worker-lease-seconds:30}") long leaseSeconds,
+                             @Value("${hmdp.id.max-backward-millis:5}") long maxBackwardMillis) {
+        this.stringRedisTemplate = stringRedisTemplate;
+        this.redisScriptRegistry = redisScriptRegistry;
+        this.leaseSeconds = leaseSeconds;
+        this.maxBackwardMillis = maxBackwardMillis;
+        this.zoneOffsetMillis = TimeUnit.SECONDS.toMillis(
+                ZoneId.systemDefault().getRules().getOffset(Instant.now()).getTotalSeconds());
+    }
+
+    @PostConstruct
+    private void init() {
+        if (!lease()) {
+            throw new IllegalStateException("没有可用的worker id，最多支持" + (MAX_WORKER_ID + 1) + "个节点");
+        }
+    }
+
+    @Override
+    public synchronized long nextId(String keyPrefix) {
+        long worker = workerId;
+        if (worker < 0 || System.nanoTime() - leaseDeadline >= 0) {
+            throw new IllegalStateException("worker id租约已失效，暂时无法生成id");
+        }
+        long now = currentMillis();
+        //1.时钟回拨
+        if (now < lastMillis) {
+            long backward = lastMillis - now;
+            if (backward > maxBackwardMillis) {
+                throw new IllegalStateException("时钟回拨" + backward + "ms，拒绝生成id");
+            }
+            log.warn("时钟回拨{}ms，等待时钟追上", backward);
+            now = waitUntil(lastMillis);
+        }
+        //2.同一毫秒内序列号递增，用完则等到下一毫秒
+        if (now == lastMillis) {
+            sequence = (sequence + 1) & MAX_SEQUENCE;
+            if (sequence == 0) {
+                now = waitUntil(lastMillis + 1);
+            }
+        } else {
+            sequence = 0;
+        }
+        lastMillis = now;
+
+        //3.拼接：秒 | 标志位 | 毫秒 | worker id | 序列号
+        long timeStamp = now / 1000 - RedisIdWorker.BEGIN_TIMESTAMP;
+        return timeStamp << RedisIdWorker.COUNT_BIT
+                | SNOWFLAKE_FLAG
+                | (now % 1000) << (WORKER_BITS + SEQUENCE_BITS)
+                | worker << SEQUENCE_BITS
+                | sequence;
+    }
+
+    /**
+     * 续约worker id，租约已经丢失时重新租用
+     */
+    @Scheduled(fixedDelayString = "#{${hmdp.id.worker-lease-seconds:30} * 1000 / 3}")
+    public void renew() {
+        long worker = workerId;
+        try {
+            if (worker >= 0) {
+                long begin = System.nanoTime();
+                Long renewed = redisScriptRegistry.execute("id_worker_renew",
+                        Collections.singletonList(RedisConstants.ID_WORKER_KEY + worker),
+                        token, String.valueOf(leaseSeconds));
+                if (renewed != null && renewed == 1L) {
+                    leaseDeadline = begin + TimeUnit.SECONDS.toNanos(leaseSeconds);
+                    return;
+                }
+                log.error("worker id {}的租约已丢失，停止生成id并重新租用", worker);
+                workerId = -1;
+            }
+            lease();
+        } catch (Exception e) {
+            //Redis暂时不可用时保留当前的worker id，租约在过期前还有效；过期后其他节点可能已经租用，只能重新租用
+            log.warn("worker id续约失败：{}", worker, e);
+            if (worker >= 0 && System.nanoTime() - leaseDeadline >= 0 && workerId == worker) {
+                log.error("worker id {}的租约已过期，停止生成id并重新租用", worker);
+                workerId = -1;
+            }
+        }
+    }
+
+    @PreDestroy
+    public void release() {
+        long worker = workerId;
+        if (worker < 0) {
+            return;
+        }
+        workerId = -1;
+        //与释放锁相同：标识一致才删除
+        redisScriptRegistry.execute("unlock",
+                Collections.singletonList(RedisConstants.ID_WORKER_KEY + worker), token);
+    }
+
+    //从随机位置开始找一个空闲的worker id，SET NX EX
+    private boolean lease() {
+        long start = ThreadLocalRandom.current().nextLong(MAX_WORKER_ID + 1);
+        for (long i = 0; i <= MAX_WORKER_ID; i++) {
+            long worker = (start + i) & MAX_WORKER_ID;
+            long begin = System.nanoTime();
+            Boolean success = stringRedisTemplate.opsForValue().setIfAbsent(
+                    RedisConstants.ID_WORKER_KEY + worker, token, leaseSeconds, TimeUnit.SECONDS);
+            if (Boolean.TRUE.equals(success)) {
+                leaseDeadline = begin + TimeUnit.SECONDS.toNanos(leaseSeconds);
+                workerId = worker;
+                log.info("租用worker id：{}", worker);
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private long waitUntil(long millis) {
+        long now = currentMillis();
+        while (now < millis) {
+            Thread.yield();
+            now = currentMillis();
+        }
+        return now;
+    }
+
+    //包可见，测试中替换时钟
+    long currentMillis() {
+        return System.currentTimeMillis() + zoneOffsetMillis;
+    }
+}
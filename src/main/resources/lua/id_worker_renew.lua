@@ -0,0 +1,6 @@
+-- 续约worker id：KEYS[1]为worker id的key，ARGV[1]为本节点的标识，ARGV[2]为租约时间(秒)
+-- 仍然由本节点持有时延长过期时间并返回1，否则返回0
+if (redis.call('get', KEYS[1]) == ARGV[1]) then
+    return redis.call('expire', KEYS[1], ARGV[2])
+end
+return 0
@@ -0,0 +1,12 @@
+-- 可重入锁：锁是一个hash，field为线程标识，value为重入次数
+-- KEYS[1]：锁的key；ARGV[1]：线程标识；ARGV[2]：锁的过期时间(毫秒)
+-- 获取成功(包括重入)返回-1，失败返回锁的剩余时间(毫秒)
+
+-- 1.锁不存在，或者是自己持有的锁，重入次数+1并重置过期时间
+if (redis.call('exists', KEYS[1]) == 0 or redis.call('hexists', KEYS[1], ARGV[1]) == 1) then
+    redis.call('hincrby', KEYS[1], ARGV[1], 1)
+    redis.call('pexpire', KEYS[1], ARGV[2])
+    return -1
+end
+-- 2.被其他线程持有，返回剩余时间，调用方最多等待这么久
+return redis.call('pttl', KEYS[1])
@@ -0,0 +1,18 @@
+-- 释放可重入锁
+-- KEYS[1]：锁的key；KEYS[2]：释放锁的通知频道；ARGV[1]：线程标识；ARGV[2]：锁的过期时间(毫秒)；ARGV[3]：通知内容(锁名称)
+-- 不是自己的锁返回-1，重入次数减1后仍持有返回0，完全释放返回1
+
+-- 1.判断是否是自己的锁
+if (redis.call('hexists', KEYS[1], ARGV[1]) == 0) then
+    return -1
+end
+-- 2.重入次数-1，仍然大于0则重置过期时间
+local count = redis.call('hincrby', KEYS[1], ARGV[1], -1)
+if (count > 0) then
+    redis.call('pexpire', KEYS[1], ARGV[2])
+    return 0
+end
+-- 3.完全释放，通知等待的线程
+redis.call('del', KEYS[1])
+redis.call('publish', KEYS[2], ARGV[3])
+return 1
@@ -0,0 +1,50 @@
+-- 1.参数列表
+-- 1.1 优惠券id
+local voucherId = ARGV[1]
+-- 1.2 用户id
+local userId = ARGV[2]
+-- 1.3 订单id
+local orderId = ARGV[3]
+
+-- 2.数据key
+-- 2.1 库存key
+local stockKey = 'seckill:stock:' .. voucherId
+-- 2.2 订单key
+local orderKey = 'seckill:order:' .. voucherId
+-- 2.3 秒杀时间key，保存begin、end两个字段(毫秒时间戳)
+local timeKey = 'seckill:time:' .. voucherId
+
+-- 3.脚本业务
+-- 3.0 判断是否在秒杀时间内，使用Redis服务器时间
+-- TIME的结果不确定，需要先切换为按命令复制
+redis.replicate_commands()
+local now = redis.call('time')
+local nowMillis = tonumber(now[1]) * 1000 + math.floor(tonumber(now[2]) / 1000)
+local window = redis.call('hmget', timeKey, 'begin', 'end')
+if (window[1] and nowMillis < tonumber(window[1])) then
+    -- 秒杀尚未开始
+    return 3
+end
+if (window[2] and nowMillis > tonumber(window[2])) then
+    -- 秒杀已经结束
+    return 4
+end
+
+-- 3.1 判断库存是否充足 get stockKey
+if (tonumber(redis.call('get', stockKey)) <= 0) then
+    return 1
+end
+
+-- 3.2 判断用户是否下单 SISMEMBER orderKey userId
+if (redis.call('sismember', orderKey, userId) == 1) then
+    -- 3.3 存在说明是重复下单
+    return 2
+end
+
+-- 3.4 扣库存 incrby stockKey -1
+redis.call('incrby' ,stockKey, -1)
+-- 3.5 下单（保存用户） sadd orderKey userId
+redis.call('sadd', orderKey, userId)
+-- 3.6 发送消息到队列中 XADD stream.orders * k1 v1 k2 v2 ...
+redis.call('xadd', 'stream.orders', '*', 'userId', userId, 'voucherId', voucherId, 'id', orderId)
+return 0
@@ -0,0 +1,38 @@
+-- 令牌桶限流，多个桶要么都取到令牌，要么都不取
+-- KEYS[i]：第i个桶，hash字段tokens(剩余令牌)、ts(上次更新时间，毫秒)
+-- ARGV[2i-1]：第i个桶每秒生成的令牌数，ARGV[2i]：第i个桶的容量
+-- 返回1表示通过，0表示被限流
+
+-- 1.使用Redis服务器时间，各节点一致。TIME的结果不确定，需要先切换为按命令复制
+redis.replicate_commands()
+local now = redis.call('time')
+local nowMillis = tonumber(now[1]) * 1000 + math.floor(tonumber(now[2]) / 1000)
+
+-- 2.计算每个桶当前的令牌数，任何一个不足1个就直接返回
+local tokens = {}
+for i, key in ipairs(KEYS) do
+    local rate = tonumber(ARGV[2 * i - 1])
+    local capacity = tonumber(ARGV[2 * i])
+    local bucket = redis.call('hmget', key, 'tokens', 'ts')
+    local current = tonumber(bucket[1])
+    local ts = tonumber(bucket[2])
+    if (current == nil or ts == nil) then
+        -- 新桶是满的
+        current = capacity
+        ts = nowMillis
+    end
+    current = math.min(capacity, current + math.max(0, nowMillis - ts) * rate / 1000)
+    if (current < 1) then
+        return 0
+    end
+    tokens[i] = current
+end
+
+-- 3.每个桶取一个令牌，桶空闲到重新装满后就没有保存的必要，设置过期时间
+for i, key in ipairs(KEYS) do
+    local rate = tonumber(ARGV[2 * i - 1])
+    local capacity = tonumber(ARGV[2 * i])
+    redis.call('hset', key, 'tokens', tokens[i] - 1, 'ts', nowMillis)
+    redis.call('pexpire', key, math.ceil(capacity / rate * 1000) + 1000)
+end
+return 1
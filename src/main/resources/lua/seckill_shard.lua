@@ -0,0 +1,44 @@
+-- 分片库存模式的秒杀脚本，所有key都带相同的hash tag {s<i>}，在集群中落在同一个槽
+-- 1.参数列表
+-- 1.1 分片库存key、分片订单key、分片消息队列、分片秒杀时间
+local stockKey = KEYS[1]
+local orderKey = KEYS[2]
+local streamKey = KEYS[3]
+local timeKey = KEYS[4]
+-- 1.2 优惠券id、用户id、订单id
+local voucherId = ARGV[1]
+local userId = ARGV[2]
+local orderId = ARGV[3]
+-- 1.3 是否已经从其他分片扣过库存，1表示已扣
+local taken = ARGV[4]
+
+-- 2.脚本业务
+-- 2.0 判断是否在秒杀时间内，使用Redis服务器时间
+redis.replicate_commands()
+local now = redis.call('time')
+local nowMillis = tonumber(now[1]) * 1000 + math.floor(tonumber(now[2]) / 1000)
+local window = redis.call('hmget', timeKey, 'begin', 'end')
+if (window[1] and nowMillis < tonumber(window[1])) then
+    return 3
+end
+if (window[2] and nowMillis > tonumber(window[2])) then
+    return 4
+end
+
+-- 2.1 判断用户是否下单，一个用户固定使用一个分片记录订单，因此只需判断这一个分片
+if (redis.call('sismember', orderKey, userId) == 1) then
+    return 2
+end
+
+-- 2.2 没有从其他分片扣库存时，扣本分片的库存
+if (taken ~= '1') then
+    if (tonumber(redis.call('get', stockKey) or '0') <= 0) then
+        return 1
+    end
+    redis.call('incrby', stockKey, -1)
+end
+
+-- 2.3 下单（保存用户），并发送消息到本分片的队列
+redis.call('sadd', orderKey, userId)
+redis.call('xadd', streamKey, '*', 'userId', userId, 'voucherId', voucherId, 'id', orderId)
+return 0
@@ -0,0 +1,9 @@
+-- 结束一次跨分片扣库存：删除转移记录，ARGV[2]为1时同时归还库存，KEYS与seckill_stock_take相同
+-- ARGV[1]为转移记录，记录已经不存在(已被请求线程或对账任务处理)时什么都不做，返回0
+if (redis.call('zrem', KEYS[2], ARGV[1]) == 0) then
+    return 0
+end
+if (ARGV[2] == '1') then
+    redis.call('incrby', KEYS[1], 1)
+end
+return 1
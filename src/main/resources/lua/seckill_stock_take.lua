@@ -0,0 +1,9 @@
+-- 从一个库存分片中扣减一个库存，并在同一个分片中记录这次转移，KEYS[1]为分片库存key，KEYS[2]为分片的转移记录
+-- ARGV[1]为转移记录(订单id:用户id:固定分片)，ARGV[2]为当前时间(毫秒)，超时未结束的记录由对账任务处理
+-- 扣减成功返回1，分片已空返回0
+if (tonumber(redis.call('get', KEYS[1]) or '0') > 0) then
+    redis.call('incrby', KEYS[1], -1)
+    redis.call('zadd', KEYS[2], ARGV[2], ARGV[1])
+    return 1
+end
+return 0
@@ -0,0 +1,152 @@
+package com.hmdp.benchmark;
+
+import com.hmdp.entity.Blog;
+import com.hmdp.entity.Shop;
+import com.hmdp.entity.ShopType;
+import com.hmdp.utils.CacheCodec;
+import com.hmdp.utils.HutoolJsonCodec;
+import com.hmdp.utils.JacksonCacheCodec;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 缓存序列化方式对比：Shop、Blog、ShopType列表的编码/解码耗时以及序列化后的大小。
+ * <p>
+ * 运行：在IDE中执行main方法。
+ * 序列化后的大小在每组参数开始前打印到控制台。
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class CacheCodecBenchmark {
+
+    @Param({"hutool", "jackson", "smile"})
+    private String codecName;
+
+    private CacheCodec codec;
+    private Shop shop;
+    private Blog blog;
+    private List<ShopType> shopTypes;
+    private byte[] shopBytes;
+    private byte[] blogBytes;
+    private byte[] shopTypesBytes;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        switch (codecName) {
+            case "jackson":
+                codec = JacksonCacheCodec.json();
+                break;
+            case "smile":
+                codec = JacksonCacheCodec.smile();
+                break;
+            default:
+                codec = new HutoolJsonCodec();
+        }
+        shop = newShop();
+        blog = newBlog();
+        shopTypes = newShopTypes();
+        shopBytes = codec.encode(shop);
+        blogBytes = codec.encode(blog);
+        shopTypesBytes = codec.encode(shopTypes);
+        System.out.printf("%n[%s] 序列化大小(字节)：Shop=%d, Blog=%d, List<ShopType>=%d%n",
+                codecName, shopBytes.length, blogBytes.length, shopTypesBytes.length);
+    }
+
+    @Benchmark
+    public byte[] encodeShop() {
+        return codec.encode(shop);
+    }
+
+    @Benchmark
+    public Shop decodeShop() {
+        return codec.decode(shopBytes, 0, shopBytes.length, Shop.class);
+    }
+
+    @Benchmark
+    public byte[] encodeBlog() {
+        return codec.encode(blog);
+    }
+
+    @Benchmark
+    public Blog decodeBlog() {
+        return codec.decode(blogBytes, 0, blogBytes.length, Blog.class);
+    }
+
+    @Benchmark
+    public byte[] encodeShopTypes() {
+        return codec.encode(shopTypes);
+    }
+
+    @Benchmark
+    public List<ShopType> decodeShopTypes() {
+        return codec.decodeList(shopTypesBytes, 0, shopTypesBytes.length, ShopType.class);
+    }
+
+    private static Shop newShop() {
+        return new Shop()
+                .setId(1L)
+                .setName("103茶餐厅")
+                .setTypeId(1L)
+                .setImages("https://qcloud.dpfile.com/pc/jiclIsCKmOI2arxKN1Uf0Hx3PucIJH8q0QSz-Z8llzcN56-_QiKuOvyio1OOxsRtFoXqu0G3iT2T27qat3WhLVEuLYk00OmSS1IdNpm8K8sG4JN9RIm2mTKcbLtc2o2vfCF2ubeXzk49OsGrXt_KYDCngOyCwZK-s3fqawWswzk.jpg")
+                .setArea("大关")
+                .setAddress("金华路锦昌文华苑29号")
+                .setX(120.149192)
+                .setY(30.316078)
+                .setAvgPrice(80L)
+                .setSold(4215)
+                .setComments(3035)
+                .setScore(37)
+                .setOpenHours("10:00-22:00")
+                .setCreateTime(LocalDateTime.of(2021, 12, 22, 18, 10, 39))
+                .setUpdateTime(LocalDateTime.of(2022, 1, 13, 17, 32, 19));
+    }
+
+    private static Blog newBlog() {
+        return new Blog()
+                .setId(4L)
+                .setShopId(4L)
+                .setUserId(2L)
+                .setTitle("无尽浪漫的夜晚丨在万花丛中摇晃着红酒杯🍷品战斧牛排🥩")
+                .setImages("/imgs/blogs/7/14/4771fefb-1a87-4252-816c-9f7ec41ffa4a.jpg,/imgs/blogs/4/10/2f07e3c9-ddce-482d-9ea7-c21450f8d7cd.jpg")
+                .setContent("生活就是一半烟火·一半诗意<br/>手执烟火谋生活·心怀诗意以谋爱·<br/>当然<br/>男朋友给不了的浪漫要学会自己给🍒<br/>"
+                        + "无法重来的一生·尽量快乐.<br/><br/>🏰「小筑里·神秘浪漫花园餐厅」🏰<br/><br/>💯这是一家最最最美花园的西餐厅·到处都是花餐桌上是花前台是花")
+                .setLiked(1)
+                .setComments(104)
+                .setCreateTime(LocalDateTime.of(2021, 12, 28, 19, 50, 1))
+                .setUpdateTime(LocalDateTime.of(2022, 3, 10, 14, 26, 34));
+    }
+
+    private static List<ShopType> newShopTypes() {
+        String[] names = {"美食", "KTV", "丽人·美发", "健身运动", "按摩·足疗", "美容SPA", "亲子游乐", "酒吧", "轰趴馆", "美睫·美甲"};
+        List<ShopType> list = new ArrayList<>(names.length);
+        for (int i = 0; i < names.length; i++) {
+            list.add(new ShopType()
+                    .setId((long) i + 1)
+                    .setName(names[i])
+                    .setIcon("/types/type" + (i + 1) + ".png")
+                    .setSort(i + 1)
+                    .setCreateTime(LocalDateTime.of(2021, 12, 22, 20, 17, 47))
+                    .setUpdateTime(LocalDateTime.of(2021, 12, 23, 11, 24, 31)));
+        }
+        return list;
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        Options options = new OptionsBuilder()
+                .include(CacheCodecBenchmark.class.getSimpleName())
+                .build();
+        new Runner(options).run();
+    }
+}
@@ -0,0 +1,68 @@
+package com.hmdp.benchmark;
+
+import com.hmdp.utils.RedisIdWorker;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import org.springframework.data.redis.connection.RedisStandaloneConfiguration;
+import org.springframework.data.redis.connection.lettuce.LettuceConnectionFactory;
+import org.springframework.data.redis.core.StringRedisTemplate;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * id生成对比：每个id一次INCR(segmentSize=1，原来的实现)与号段模式。
+ * <p>
+ * 需要一个可以写入的Redis，默认localhost:6379，可以用-Dhmdp.bench.redis.host/port/password指定。
+ * 运行：在IDE中执行main方法。
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@Threads(8)
+@State(Scope.Benchmark)
+public class RedisIdWorkerBenchmark {
+
+    @Param({"1", "1000", "10000"})
+    private int segmentSize;
+
+    private LettuceConnectionFactory connectionFactory;
+    private RedisIdWorker redisIdWorker;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        RedisStandaloneConfiguration configuration = new RedisStandaloneConfiguration(
+                System.getProperty("hmdp.bench.redis.host", "localhost"),
+                Integer.getInteger("hmdp.bench.redis.port", 6379));
+        String password = System.getProperty("hmdp.bench.redis.password");
+        if (password != null) {
+            configuration.setPassword(password);
+        }
+        connectionFactory = new LettuceConnectionFactory(configuration);
+        connectionFactory.afterPropertiesSet();
+        StringRedisTemplate stringRedisTemplate = new StringRedisTemplate(connectionFactory);
+        redisIdWorker = new RedisIdWorker(stringRedisTemplate, segmentSize);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        redisIdWorker.shutdown();
+        connectionFactory.destroy();
+    }
+
+    @Benchmark
+    public long nextId() {
+        return redisIdWorker.nextId("bench");
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        Options options = new OptionsBuilder()
+                .include(RedisIdWorkerBenchmark.class.getSimpleName())
+                .build();
+        new Runner(options).run();
+    }
+}
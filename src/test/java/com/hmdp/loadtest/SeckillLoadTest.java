@@ -0,0 +1,215 @@
+package com.hmdp.loadtest;
+
+import com.hmdp.dto.Result;
+import com.hmdp.dto.UserDTO;
+import com.hmdp.entity.SeckillVoucher;
+import com.hmdp.entity.Voucher;
+import com.hmdp.service.ISeckillVoucherService;
+import com.hmdp.service.IVoucherOrderService;
+import com.hmdp.service.IVoucherService;
+import com.hmdp.utils.UserHolder;
+import lombok.extern.slf4j.Slf4j;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.EnabledIfSystemProperty;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.test.context.DynamicPropertyRegistry;
+import org.springframework.test.context.DynamicPropertySource;
+import org.testcontainers.containers.GenericContainer;
+import org.testcontainers.utility.DockerImageName;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * 秒杀压测：大量用户同时抢同一张秒杀券。
+ * <p>
+ * 不依赖外部的MySQL和Redis：数据库使用H2内存库(application-loadtest.yaml)，Redis默认在Docker容器中启动。
+ * 默认不执行，需要显式开启：
+ * <pre>
+ * mvn test -Dtest=SeckillLoadTest -Dhmdp.loadtest=true -Dhmdp.loadtest.users=50000 -Dhmdp.loadtest.stock=1000
+ * </pre>
+ * 可选参数：hmdp.loadtest.threads(并发线程数)、hmdp.loadtest.repeat(每个用户的请求次数)、
+ * hmdp.loadtest.shards(库存分片数)；没有Docker时加上-Dhmdp.loadtest.external-redis=true
+ * 和-Dspring.redis.host/port连接一个空的Redis(5.0以上)。
+ * <p>
+ * 输出成功/失败数量、请求耗时的p50/p99/p999和每秒入库的订单数，并校验没有超卖、每个用户最多一单。
+ */
+@Slf4j
+@SpringBootTest
+@ActiveProfiles("loadtest")
+@EnabledIfSystemProperty(named = "hmdp.loadtest", matches = "true")
+class SeckillLoadTest {
+
+    private static final int USERS = Integer.getInteger("hmdp.loadtest.users", 50000);
+    private static final int STOCK = Integer.getInteger("hmdp.loadtest.stock", 1000);
+    private static final int THREADS = Integer.getInteger("hmdp.loadtest.threads", 200);
+    private static final int REPEAT = Integer.getInteger("hmdp.loadtest.repeat", 2);
+    private static final int SHARDS = Integer.getInteger("hmdp.loadtest.shards", 1);
+    //等待订单全部入库的最长时间
+    private static final long PERSIST_TIMEOUT_MILLIS = 120_000;
+
+    private static GenericContainer<?> redis;
+
+    @Autowired
+    private IVoucherService voucherService;
+
+    @Autowired
+    private IVoucherOrderService voucherOrderService;
+
+    @Autowired
+    private ISeckillVoucherService seckillVoucherService;
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    @DynamicPropertySource
+    static void redisProperties(DynamicPropertyRegistry registry) {
+        if (Boolean.getBoolean("hmdp.loadtest.external-redis")) {
+            return;
+        }
+        //秒杀依赖Stream，需要Redis 5.0以上
+        redis = new GenericContainer<>(DockerImageName.parse("redis:7-alpine")).withExposedPorts(6379);
+        redis.start();
+        registry.add("spring.redis.host", redis::getHost);
+        registry.add("spring.redis.port", () -> redis.getMappedPort(6379));
+    }
+
+    @AfterAll
+    static void stopRedis() {
+        if (redis != null) {
+            redis.stop();
+        }
+    }
+
+    @Test
+    void seckillOneVoucher() throws InterruptedException {
+        //1.创建秒杀券
+        Voucher voucher = new Voucher()
+                .setShopId(1L)
+                .setTitle("压测秒杀券")
+                .setPayValue(100L)
+                .setActualValue(1000L)
+                .setType(1)
+                .setStatus(1)
+                .setStock(STOCK)
+                .setBeginTime(LocalDateTime.now().minusHours(1))
+                .setEndTime(LocalDateTime.now().plusHours(1))
+                .setStockShards(SHARDS);
+        voucherService.addSeckillVoucher(voucher);
+        Long voucherId = voucher.getId();
+
+        //2.每个用户请求REPEAT次，打乱顺序，重复请求与其他用户的请求交错
+        List<Long> requests = new ArrayList<>(USERS * REPEAT);
+        for (long userId = 1; userId <= USERS; userId++) {
+            for (int i = 0; i < REPEAT; i++) {
+                requests.add(userId);
+            }
+        }
+        Collections.shuffle(requests);
+
+        //3.所有线程同时开始
+        long[] latencies = new long[requests.size()];
+        AtomicInteger next = new AtomicInteger();
+        LongAdder accepted = new LongAdder();
+        Map<String, LongAdder> rejected = new ConcurrentHashMap<>();
+        ExecutorService pool = Executors.newFixedThreadPool(THREADS);
+        CountDownLatch start = new CountDownLatch(1);
+        CountDownLatch done = new CountDownLatch(THREADS);
+        for (int t = 0; t < THREADS; t++) {
+            pool.submit(() -> {
+                try {
+                    start.await();
+                    for (int i = next.getAndIncrement(); i < latencies.length; i = next.getAndIncrement()) {
+                        UserDTO user = new UserDTO();
+                        user.setId(requests.get(i));
+                        UserHolder.saveUser(user);
+                        long begin = System.nanoTime();
+                        try {
+                            Result result = voucherOrderService.seckillVoucher(voucherId);
+                            if (Boolean.TRUE.equals(result.getSuccess())) {
+                                accepted.increment();
+                            } else {
+                                rejected.computeIfAbsent(result.getErrorMsg(), k -> new LongAdder()).increment();
+                            }
+                        } catch (Exception e) {
+                            rejected.computeIfAbsent(e.getClass().getSimpleName(), k -> new LongAdder()).increment();
+                        } finally {
+                            latencies[i] = System.nanoTime() - begin;
+                            UserHolder.removeUser();
+                        }
+                    }
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                } finally {
+                    done.countDown();
+                }
+            });
+        }
+        long begin = System.nanoTime();
+        start.countDown();
+        done.await();
+        long requestNanos = System.nanoTime() - begin;
+        pool.shutdown();
+
+        //4.等待订单全部入库
+        long expected = accepted.sum();
+        long persisted = countOrders(voucherId);
+        long deadline = System.currentTimeMillis() + PERSIST_TIMEOUT_MILLIS;
+        while (persisted < expected && System.currentTimeMillis() < deadline) {
+            Thread.sleep(50);
+            persisted = countOrders(voucherId);
+        }
+        long persistNanos = System.nanoTime() - begin;
+
+        //5.输出结果
+        Arrays.sort(latencies);
+        log.info("秒杀压测：用户{}，每人请求{}次，线程{}，库存{}，分片{}", USERS, REPEAT, THREADS, STOCK, SHARDS);
+        log.info("请求{}次，耗时{}ms，吞吐{}/s", latencies.length, TimeUnit.NANOSECONDS.toMillis(requestNanos),
+                latencies.length * 1_000_000_000L / Math.max(requestNanos, 1));
+        log.info("成功{}，失败{}", expected, rejected);
+        log.info("耗时 p50={}us p99={}us p999={}us max={}us",
+                percentile(latencies, 0.50), percentile(latencies, 0.99), percentile(latencies, 0.999),
+                TimeUnit.NANOSECONDS.toMicros(latencies[latencies.length - 1]));
+        log.info("入库{}单，耗时{}ms，{}单/s", persisted, TimeUnit.NANOSECONDS.toMillis(persistNanos),
+                persisted * 1_000_000_000L / Math.max(persistNanos, 1));
+
+        //6.校验：不超卖、订单全部入库、一人一单、数据库库存与订单数一致
+        assertEquals(Math.min(STOCK, USERS), expected, "成功数应等于库存与用户数中较小的一个");
+        assertEquals(expected, persisted, "成功的订单没有全部入库");
+        Long users = jdbcTemplate.queryForObject(
+                "SELECT COUNT(DISTINCT user_id) FROM tb_voucher_order WHERE voucher_id = ?", Long.class, voucherId);
+        assertEquals(persisted, users, "存在同一用户的重复订单");
+        SeckillVoucher seckillVoucher = seckillVoucherService.getById(voucherId);
+        assertTrue(seckillVoucher.getStock() >= 0, "数据库库存为负数");
+        assertEquals(STOCK - persisted, seckillVoucher.getStock().longValue(), "数据库库存与订单数不一致");
+    }
+
+    private long countOrders(Long voucherId) {
+        Long count = jdbcTemplate.queryForObject(
+                "SELECT COUNT(*) FROM tb_voucher_order WHERE voucher_id = ?", Long.class, voucherId);
+        return count == null ? 0 : count;
+    }
+
+    private static long percentile(long[] sorted, double p) {
+        int index = (int) Math.ceil(p * sorted.length) - 1;
+        return TimeUnit.NANOSECONDS.toMicros(sorted[Math.max(0, Math.min(index, sorted.length - 1))]);
+    }
+}
@@ -0,0 +1,145 @@
+package com.hmdp.utils;
+
+import cn.hutool.json.JSONUtil;
+import com.hmdp.entity.Shop;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDateTime;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class CacheSerializerTest {
+
+    private static final String KEY = RedisConstants.CACHE_SHOP_KEY + 1;
+    private static final LocalDateTime EXPIRE_TIME = LocalDateTime.of(2023, 7, 16, 12, 30, 0);
+
+    private static Shop shop(long id) {
+        return new Shop()
+                .setId(id)
+                .setName("103茶餐厅")
+                .setTypeId(1L)
+                .setArea("大关")
+                .setX(120.149192)
+                .setY(30.316078)
+                .setAvgPrice(80L)
+                .setScore(37)
+                .setCreateTime(LocalDateTime.of(2021, 12, 22, 18, 10, 39))
+                .setUpdateTime(LocalDateTime.of(2022, 1, 11, 16, 5, 15));
+    }
+
+    private static CacheSerializer serializer(String codec) {
+        CacheSerializer serializer = new CacheSerializer();
+        serializer.setDefaultCodec(codec);
+        return serializer;
+    }
+
+    @ParameterizedTest
+    @ValueSource(strings = {"hutool", "jackson", "smile"})
+    void roundTrip(String codec) {
+        CacheSerializer serializer = serializer(codec);
+        byte[] raw = serializer.encode(KEY, shop(1));
+        assertEquals(shop(1), serializer.decode(raw, Shop.class));
+    }
+
+    @ParameterizedTest
+    @ValueSource(strings = {"hutool", "jackson", "smile"})
+    void roundTripList(String codec) {
+        CacheSerializer serializer = serializer(codec);
+        List<Shop> shops = Arrays.asList(shop(1), shop(2));
+        byte[] raw = serializer.encode(KEY, shops);
+        assertEquals(shops, serializer.decodeList(raw, Shop.class));
+    }
+
+    @ParameterizedTest
+    @ValueSource(strings = {"hutool", "jackson", "smile"})
+    void roundTripWithLogicalExpire(String codec) {
+        CacheSerializer serializer = serializer(codec);
+        byte[] raw = serializer.encodeWithLogicalExpire(KEY, shop(1), EXPIRE_TIME);
+        RedisData redisData = serializer.decodeWithLogicalExpire(raw, Shop.class);
+        assertEquals(EXPIRE_TIME, redisData.getExpireTime());
+        assertEquals(shop(1), redisData.getData());
+        assertNull(redisData.getDelta());
+    }
+
+    @ParameterizedTest
+    @ValueSource(strings = {"hutool", "jackson", "smile"})
+    void roundTripWithEarlyRefresh(String codec) {
+        CacheSerializer serializer = serializer(codec);
+        byte[] raw = serializer.encodeWithEarlyRefresh(KEY, shop(1), EXPIRE_TIME, 120L);
+        RedisData redisData = serializer.decodeWithLogicalExpire(raw, Shop.class);
+        assertEquals(EXPIRE_TIME, redisData.getExpireTime());
+        assertEquals(120L, redisData.getDelta());
+        assertEquals(shop(1), redisData.getData());
+    }
+
+    @Test
+    void hutoolWritesOldFormat() {
+        //默认的hutool不带头部，与引入序列化方式之前写入的内容完全一致
+        byte[] raw = serializer("hutool").encode(KEY, shop(1));
+        assertEquals(JSONUtil.toJsonStr(shop(1)), new String(raw, StandardCharsets.UTF_8));
+    }
+
+    @ParameterizedTest
+    @ValueSource(strings = {"hutool", "jackson", "smile"})
+    void readsOldFormat(String codec) {
+        //旧版本直接写入的JSON，切换序列化方式后仍然可以读取
+        byte[] raw = JSONUtil.toJsonStr(shop(1)).getBytes(StandardCharsets.UTF_8);
+        assertEquals(shop(1), serializer(codec).decode(raw, Shop.class));
+
+        byte[] list = JSONUtil.toJsonStr(Collections.singletonList(shop(1))).getBytes(StandardCharsets.UTF_8);
+        assertEquals(Collections.singletonList(shop(1)), serializer(codec).decodeList(list, Shop.class));
+    }
+
+    @ParameterizedTest
+    @ValueSource(strings = {"hutool", "jackson", "smile"})
+    void readsOldLogicalExpireFormat(String codec) {
+        //旧版本写入的逻辑过期值：RedisData整体是JSON
+        RedisData old = new RedisData();
+        old.setData(shop(1));
+        old.setExpireTime(EXPIRE_TIME);
+        byte[] raw = JSONUtil.toJsonStr(old).getBytes(StandardCharsets.UTF_8);
+
+        RedisData redisData = serializer(codec).decodeWithLogicalExpire(raw, Shop.class);
+        assertEquals(EXPIRE_TIME, redisData.getExpireTime());
+        assertEquals(shop(1), redisData.getData());
+    }
+
+    @Test
+    void readsValuesWrittenWithAnotherCodec() {
+        //值的头部记录了序列化方式，修改配置后旧值仍按写入时的方式解析
+        byte[] raw = serializer("smile").encode(KEY, shop(1));
+        assertEquals(shop(1), serializer("jackson").decode(raw, Shop.class));
+    }
+
+    @Test
+    void longestPrefixWins() {
+        CacheSerializer serializer = new CacheSerializer();
+        Map<String, String> prefixes = new HashMap<>();
+        prefixes.put("cache:", "jackson");
+        prefixes.put(RedisConstants.CACHE_SHOP_KEY, "smile");
+        serializer.setPrefixes(prefixes);
+        assertEquals("smile", serializer.codecFor(KEY).name());
+        assertEquals("jackson", serializer.codecFor("cache:user:1").name());
+        assertEquals("hutool", serializer.codecFor("other:1").name());
+    }
+
+    @Test
+    void unknownCodecIsRejected() {
+        assertThrows(IllegalStateException.class, () -> serializer("xml").encode(KEY, shop(1)));
+    }
+
+    @Test
+    void plainValueHasNoLogicalExpire() {
+        CacheSerializer serializer = serializer("smile");
+        byte[] raw = serializer.encode(KEY, shop(1));
+        assertThrows(IllegalStateException.class, () -> serializer.decodeWithLogicalExpire(raw, Shop.class));
+    }
+}
@@ -0,0 +1,161 @@
+package com.hmdp.utils;
+
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.data.redis.connection.lettuce.LettuceConnectionFactory;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.testcontainers.DockerClientFactory;
+import org.testcontainers.containers.GenericContainer;
+import org.testcontainers.utility.DockerImageName;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+
+/**
+ * lock.lua / lock_unlock.lua 的重入计数。
+ * <p>
+ * 需要真实的Redis：默认在Docker容器中启动，没有Docker时跳过。
+ * 也可以加上-Dhmdp.test.external-redis=true和-Dspring.redis.host/port(默认localhost:6379)连接已有的Redis，
+ * 只会读写lock:test这一个key：
+ * <pre>
+ * mvn test -Dtest=LockScriptTest -Dhmdp.test.external-redis=true -Dspring.redis.host=127.0.0.1
+ * </pre>
+ */
+class LockScriptTest {
+
+    private static final String LOCK = "lock:test";
+    private static final String CHANNEL = "lock:test:channel";
+    private static final String TTL = "30000";
+    private static final String OWNER = "uuid-1:1";
+    private static final String OTHER = "uuid-2:1";
+
+    private static GenericContainer<?> redis;
+    private static LettuceConnectionFactory connectionFactory;
+    private static StringRedisTemplate stringRedisTemplate;
+
+    private final DefaultRedisScript<Long> lockScript = script("lua/lock.lua");
+    private final DefaultRedisScript<Long> unlockScript = script("lua/lock_unlock.lua");
+
+    @BeforeAll
+    static void startRedis() {
+        if (Boolean.getBoolean("hmdp.test.external-redis")) {
+            connectionFactory = new LettuceConnectionFactory(System.getProperty("spring.redis.host", "localhost"),
+                    Integer.getInteger("spring.redis.port", 6379));
+        } else {
+            assumeTrue(DockerClientFactory.instance().isDockerAvailable(),
+                    "没有可用的Docker，可以用-Dhmdp.test.external-redis=true连接已有的Redis");
+            redis = new GenericContainer<>(DockerImageName.parse("redis:7-alpine")).withExposedPorts(6379);
+            redis.start();
+            connectionFactory = new LettuceConnectionFactory(redis.getHost(), redis.getMappedPort(6379));
+        }
+        connectionFactory.afterPropertiesSet();
+        stringRedisTemplate = new StringRedisTemplate(connectionFactory);
+    }
+
+    @AfterAll
+    static void stopRedis() {
+        if (connectionFactory != null) {
+            connectionFactory.destroy();
+        }
+        if (redis != null) {
+            redis.stop();
+        }
+    }
+
+    @BeforeEach
+    void clean() {
+        stringRedisTemplate.delete(LOCK);
+    }
+
+    @Test
+    void reentrantLockCountsHolds() {
+        assertEquals(-1L, lock(OWNER));
+        assertEquals("1", count(OWNER));
+        //同一线程重入，次数+1
+        assertEquals(-1L, lock(OWNER));
+        assertEquals(-1L, lock(OWNER));
+        assertEquals("3", count(OWNER));
+
+        //释放一次，仍然持有
+        assertEquals(0L, unlock(OWNER));
+        assertEquals("2", count(OWNER));
+        assertEquals(0L, unlock(OWNER));
+        assertEquals("1", count(OWNER));
+        //最后一次释放删除锁
+        assertEquals(1L, unlock(OWNER));
+        assertFalse(Boolean.TRUE.equals(stringRedisTemplate.hasKey(LOCK)));
+    }
+
+    @Test
+    void otherThreadGetsRemainingTtl() {
+        assertEquals(-1L, lock(OWNER));
+        Long pttl = lock(OTHER);
+        //被其他线程持有，返回剩余时间，不修改重入次数
+        assertTrue(pttl > 0 && pttl <= Long.parseLong(TTL), "pttl：" + pttl);
+        assertNull(count(OTHER));
+        assertEquals("1", count(OWNER));
+
+        //完全释放后其他线程可以获取
+        assertEquals(1L, unlock(OWNER));
+        assertEquals(-1L, lock(OTHER));
+        assertEquals("1", count(OTHER));
+    }
+
+    @Test
+    void unlockByNonOwnerIsRejected() {
+        assertEquals(-1L, unlock(OWNER));
+        assertEquals(-1L, lock(OWNER));
+        assertEquals(-1L, unlock(OTHER));
+        assertEquals("1", count(OWNER));
+    }
+
+    @Test
+    void reentryResetsTtl() {
+        assertEquals(-1L, lock(OWNER, "1000"));
+        assertEquals(-1L, lock(OWNER));
+        Long pttl = stringRedisTemplate.getExpire(LOCK, TimeUnit.MILLISECONDS);
+        assertTrue(pttl > 1000, "pttl：" + pttl);
+        //释放一次但仍持有时，同样重置过期时间
+        assertEquals(0L, unlock(OWNER, "1000"));
+        pttl = stringRedisTemplate.getExpire(LOCK, TimeUnit.MILLISECONDS);
+        assertTrue(pttl > 0 && pttl <= 1000, "pttl：" + pttl);
+    }
+
+    private Long lock(String owner) {
+        return lock(owner, TTL);
+    }
+
+    private Long lock(String owner, String ttl) {
+        return stringRedisTemplate.execute(lockScript, Collections.singletonList(LOCK), owner, ttl);
+    }
+
+    private Long unlock(String owner) {
+        return unlock(owner, TTL);
+    }
+
+    private Long unlock(String owner, String ttl) {
+        List<String> keys = Arrays.asList(LOCK, CHANNEL);
+        return stringRedisTemplate.execute(unlockScript, keys, owner, ttl, LOCK);
+    }
+
+    //重入次数
+    private static String count(String owner) {
+        return (String) stringRedisTemplate.opsForHash().get(LOCK, owner);
+    }
+
+    private static DefaultRedisScript<Long> script(String name) {
+        DefaultRedisScript<Long> script = new DefaultRedisScript<>();
+        script.setLocation(new ClassPathResource(name));
+        script.setResultType(Long.class);
+        return script;
+    }
+}
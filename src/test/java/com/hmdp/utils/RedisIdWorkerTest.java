@@ -0,0 +1,137 @@
+package com.hmdp.utils;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.ValueOperations;
+
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.startsWith;
+import static org.mockito.Mockito.*;
+
+class RedisIdWorkerTest {
+
+    private static final long COUNT_MASK = (1L << RedisIdWorker.COUNT_BIT) - 1;
+
+    //模拟Redis中的计数器
+    private final AtomicLong counter = new AtomicLong();
+    private final StringRedisTemplate stringRedisTemplate = mock(StringRedisTemplate.class);
+    @SuppressWarnings("unchecked")
+    private final ValueOperations<String, String> valueOperations = mock(ValueOperations.class);
+    private RedisIdWorker redisIdWorker;
+
+    RedisIdWorkerTest() {
+        when(stringRedisTemplate.opsForValue()).thenReturn(valueOperations);
+        when(valueOperations.increment(anyString(), anyLong()))
+                .thenAnswer(invocation -> counter.addAndGet(invocation.getArgument(1)));
+        when(valueOperations.increment(anyString()))
+                .thenAnswer(invocation -> counter.incrementAndGet());
+    }
+
+    @AfterEach
+    void tearDown() {
+        if (redisIdWorker != null) {
+            redisIdWorker.shutdown();
+        }
+    }
+
+    @Test
+    void segmentsAreConsumedInOrder() {
+        redisIdWorker = new RedisIdWorker(stringRedisTemplate, 1000);
+        //跨越三个号段，序列号依然连续
+        for (long expected = 1; expected <= 2500; expected++) {
+            assertEquals(expected, redisIdWorker.nextId("order") & COUNT_MASK);
+        }
+        //第一段同步领取，后两段在用掉80%时预取
+        verify(valueOperations, times(3)).increment(startsWith("icr:order:"), eq(1000L));
+        verify(valueOperations, never()).increment(anyString());
+    }
+
+    @Test
+    void idContainsSecondsSinceBegin() {
+        redisIdWorker = new RedisIdWorker(stringRedisTemplate, 1000);
+        long before = LocalDateTime.now().toEpochSecond(ZoneOffset.UTC) - RedisIdWorker.BEGIN_TIMESTAMP;
+        long id = redisIdWorker.nextId("order");
+        long after = LocalDateTime.now().toEpochSecond(ZoneOffset.UTC) - RedisIdWorker.BEGIN_TIMESTAMP;
+        long timeStamp = id >>> RedisIdWorker.COUNT_BIT;
+        assertTrue(timeStamp >= before && timeStamp <= after);
+    }
+
+    @Test
+    void businessesUseSeparateSegments() {
+        redisIdWorker = new RedisIdWorker(stringRedisTemplate, 1000);
+        redisIdWorker.nextId("order");
+        redisIdWorker.nextId("blog");
+        verify(valueOperations).increment(startsWith("icr:order:"), eq(1000L));
+        verify(valueOperations).increment(startsWith("icr:blog:"), eq(1000L));
+    }
+
+    @Test
+    void failedPrefetchFallsBackToSyncAllocation() {
+        AtomicInteger calls = new AtomicInteger();
+        doAnswer(invocation -> {
+            //第二次领取(后台预取)失败
+            if (calls.incrementAndGet() == 2) {
+                throw new IllegalStateException("redis down");
+            }
+            return counter.addAndGet(invocation.getArgument(1));
+        }).when(valueOperations).increment(anyString(), anyLong());
+        redisIdWorker = new RedisIdWorker(stringRedisTemplate, 1000);
+        //切换号段时预取失败，改为同步领取，序列号依然连续
+        for (long expected = 1; expected <= 1500; expected++) {
+            assertEquals(expected, redisIdWorker.nextId("order") & COUNT_MASK);
+        }
+    }
+
+    @Test
+    void concurrentIdsAreUnique() throws Exception {
+        redisIdWorker = new RedisIdWorker(stringRedisTemplate, 100);
+        int threads = 8;
+        int perThread = 1000;
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        Set<Long> counts = ConcurrentHashMap.newKeySet();
+        try {
+            List<Future<?>> futures = new ArrayList<>();
+            for (int i = 0; i < threads; i++) {
+                futures.add(executor.submit(() -> {
+                    for (int j = 0; j < perThread; j++) {
+                        assertTrue(counts.add(redisIdWorker.nextId("order") & COUNT_MASK));
+                    }
+                }));
+            }
+            for (Future<?> future : futures) {
+                future.get(10, TimeUnit.SECONDS);
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+        assertEquals(threads * perThread, counts.size());
+        //号段切换时不会丢弃整段：领取的号段数量与实际用到的序列号相当
+        assertTrue(counter.get() <= threads * perThread + 2 * 100, "领取的序列号：" + counter.get());
+    }
+
+    @Test
+    void segmentSizeOneIncrementsEveryTime() {
+        redisIdWorker = new RedisIdWorker(stringRedisTemplate, 1);
+        for (long expected = 1; expected <= 3; expected++) {
+            assertEquals(expected, redisIdWorker.nextId("order") & COUNT_MASK);
+        }
+        verify(valueOperations, times(3)).increment(startsWith("icr:order:"));
+        verify(valueOperations, never()).increment(anyString(), anyLong());
+    }
+}
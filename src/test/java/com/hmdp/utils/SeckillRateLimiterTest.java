@@ -0,0 +1,141 @@
+package com.hmdp.utils;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.data.redis.core.HashOperations;
+import org.springframework.data.redis.core.StringRedisTemplate;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.*;
+
+class SeckillRateLimiterTest {
+
+    private static final long SECOND = TimeUnit.SECONDS.toNanos(1);
+
+    @Test
+    void bucketStartsFullAndRejectsWhenEmpty() {
+        SeckillRateLimiter.TokenBucket bucket = new SeckillRateLimiter.TokenBucket(3, 0L);
+        //初始容量等于rate，同一时刻最多取rate个
+        assertEquals(3, acquire(bucket, 10, 0L));
+    }
+
+    @Test
+    void bucketRefillsByElapsedTime() {
+        SeckillRateLimiter.TokenBucket bucket = new SeckillRateLimiter.TokenBucket(10, 0L);
+        assertEquals(10, acquire(bucket, 10, 0L));
+        //每秒10个令牌：100ms后恰好补充1个，50ms后不足1个
+        assertFalse(bucket.tryAcquire(SECOND / 20));
+        assertTrue(bucket.tryAcquire(SECOND / 10));
+        assertFalse(bucket.tryAcquire(SECOND / 10));
+        //半秒补充5个
+        assertEquals(5, acquire(bucket, 10, SECOND * 6 / 10));
+    }
+
+    @Test
+    void bucketNeverExceedsCapacity() {
+        SeckillRateLimiter.TokenBucket bucket = new SeckillRateLimiter.TokenBucket(5, 0L);
+        //空闲很久之后最多也只有rate个(1秒的突发)
+        assertEquals(5, acquire(bucket, 100, 60 * SECOND));
+        bucket.release();
+        bucket.release();
+        assertEquals(2, acquire(bucket, 100, 60 * SECOND));
+    }
+
+    @Test
+    void bucketIgnoresTimeGoingBackwards() {
+        SeckillRateLimiter.TokenBucket bucket = new SeckillRateLimiter.TokenBucket(10, SECOND);
+        assertEquals(10, acquire(bucket, 10, SECOND));
+        //并发下先取时间的线程后拿到锁，不能因此扣减已补充的令牌
+        assertFalse(bucket.tryAcquire(SECOND / 2));
+        assertTrue(bucket.tryAcquire(SECOND + SECOND / 10));
+    }
+
+    @Test
+    void releaseNeverExceedsCapacity() {
+        SeckillRateLimiter.TokenBucket bucket = new SeckillRateLimiter.TokenBucket(2, 0L);
+        bucket.release();
+        assertEquals(2, acquire(bucket, 10, 0L));
+    }
+
+    @Test
+    void userRateLimitsEachUser() {
+        SeckillRateLimiter limiter = limiter(limit(1000, 2));
+        assertTrue(limiter.tryAcquire(1L, 10L));
+        assertTrue(limiter.tryAcquire(1L, 10L));
+        assertFalse(limiter.tryAcquire(1L, 10L));
+        //其他用户、其他券不受影响
+        assertTrue(limiter.tryAcquire(1L, 11L));
+        assertTrue(limiter.tryAcquire(2L, 10L));
+    }
+
+    @Test
+    void voucherRateLimitsAllUsers() {
+        SeckillRateLimiter limiter = limiter(limit(3, 0));
+        assertTrue(limiter.tryAcquire(1L, 10L));
+        assertTrue(limiter.tryAcquire(1L, 11L));
+        assertTrue(limiter.tryAcquire(1L, 12L));
+        assertFalse(limiter.tryAcquire(1L, 13L));
+    }
+
+    @Test
+    void userTokenIsReturnedWhenVoucherIsLimited() {
+        SeckillRateLimiter limiter = limiter(limit(1, 1), limit(2, 1));
+        assertTrue(limiter.tryAcquire(1L, 10L));
+        //券的令牌用完，用户11被拒绝，但不消耗自己的令牌
+        assertFalse(limiter.tryAcquire(1L, 11L));
+        //修改券的限流值后券的令牌桶是新的，用户11的令牌还在
+        limiter.initLimit(1L, 2, null);
+        assertTrue(limiter.tryAcquire(1L, 11L));
+        //用户10自己的令牌已经用完，被用户限流拒绝，不消耗券的令牌
+        assertFalse(limiter.tryAcquire(1L, 10L));
+        assertTrue(limiter.tryAcquire(1L, 12L));
+    }
+
+    @Test
+    void zeroMeansUnlimited() {
+        SeckillRateLimiter limiter = limiter(limit(0, 0));
+        for (int i = 0; i < 100; i++) {
+            assertTrue(limiter.tryAcquire(1L, 10L));
+        }
+    }
+
+    @Test
+    void defaultsAreUsedWhenVoucherHasNoLimit() {
+        SeckillRateLimiter limiter = limiter(new HashMap<>());
+        //默认每个用户每秒2次
+        assertTrue(limiter.tryAcquire(1L, 10L));
+        assertTrue(limiter.tryAcquire(1L, 10L));
+        assertFalse(limiter.tryAcquire(1L, 10L));
+    }
+
+    @SafeVarargs
+    @SuppressWarnings("unchecked")
+    private static SeckillRateLimiter limiter(Map<Object, Object> limit, Map<Object, Object>... next) {
+        StringRedisTemplate stringRedisTemplate = mock(StringRedisTemplate.class);
+        HashOperations<String, Object, Object> hashOperations = mock(HashOperations.class);
+        when(stringRedisTemplate.<Object, Object>opsForHash()).thenReturn(hashOperations);
+        when(hashOperations.entries(anyString())).thenReturn(limit, next);
+        return new SeckillRateLimiter(stringRedisTemplate, mock(RedisScriptRegistry.class), "local", 1000, 2);
+    }
+
+    private static Map<Object, Object> limit(int rate, int userRate) {
+        Map<Object, Object> limit = new HashMap<>();
+        limit.put("rate", String.valueOf(rate));
+        limit.put("userRate", String.valueOf(userRate));
+        return limit;
+    }
+
+    private static int acquire(SeckillRateLimiter.TokenBucket bucket, int times, long nowNanos) {
+        int acquired = 0;
+        for (int i = 0; i < times; i++) {
+            if (bucket.tryAcquire(nowNanos)) {
+                acquired++;
+            }
+        }
+        return acquired;
+    }
+}
@@ -0,0 +1,191 @@
+package com.hmdp.utils;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class SingleFlightTest {
+
+    private static final int CALLERS = 8;
+
+    private final SingleFlight singleFlight = new SingleFlight();
+    private final ExecutorService executor = Executors.newFixedThreadPool(CALLERS);
+
+    @AfterEach
+    void tearDown() {
+        executor.shutdownNow();
+    }
+
+    @Test
+    void concurrentCallsForSameKeyLoadOnce() throws Exception {
+        AtomicInteger loads = new AtomicInteger();
+        CountDownLatch release = new CountDownLatch(1);
+        //1.第一个调用者开始加载后阻塞，其余调用者进来时都能看到正在进行的加载
+        List<Future<String>> futures = new ArrayList<>();
+        futures.add(executor.submit(() -> singleFlight.execute("k", () -> {
+            loads.incrementAndGet();
+            await(release);
+            return "v";
+        })));
+        waitUntilInFlight("k");
+        List<Thread> waiters = new CopyOnWriteArrayList<>();
+        for (int i = 1; i < CALLERS; i++) {
+            futures.add(executor.submit(() -> {
+                waiters.add(Thread.currentThread());
+                return singleFlight.execute("k", () -> {
+                    loads.incrementAndGet();
+                    return "other";
+                });
+            }));
+        }
+        //2.所有调用者都在等待后放行加载，所有调用者拿到同一个结果
+        waitUntilWaiting(waiters, CALLERS - 1);
+        release.countDown();
+        for (Future<String> future : futures) {
+            assertEquals("v", future.get(5, TimeUnit.SECONDS));
+        }
+        assertEquals(1, loads.get());
+        assertFalse(singleFlight.isInFlight("k"));
+    }
+
+    @Test
+    void differentKeysLoadIndependently() {
+        assertEquals("a", singleFlight.execute("a", () -> "a"));
+        assertEquals("b", singleFlight.execute("b", () -> "b"));
+    }
+
+    @Test
+    void nextCallAfterCompletionLoadsAgain() {
+        AtomicInteger loads = new AtomicInteger();
+        singleFlight.execute("k", loads::incrementAndGet);
+        singleFlight.execute("k", loads::incrementAndGet);
+        //不缓存结果，加载结束后的调用会重新加载
+        assertEquals(2, loads.get());
+    }
+
+    @Test
+    void waitersReceiveLoaderException() throws Exception {
+        CountDownLatch release = new CountDownLatch(1);
+        Future<Object> leader = executor.submit(() -> singleFlight.execute("k", () -> {
+            await(release);
+            throw new IllegalStateException("boom");
+        }));
+        waitUntilInFlight("k");
+        List<Thread> waiters = new CopyOnWriteArrayList<>();
+        Future<Object> waiter = executor.submit(() -> {
+            waiters.add(Thread.currentThread());
+            return singleFlight.execute("k", () -> "other");
+        });
+        waitUntilWaiting(waiters, 1);
+        release.countDown();
+
+        for (Future<Object> future : new Future[]{leader, waiter}) {
+            Exception e = assertThrows(Exception.class, () -> future.get(5, TimeUnit.SECONDS));
+            //等待者拿到的是加载线程抛出的原始异常
+            assertTrue(e.getCause() instanceof IllegalStateException);
+            assertEquals("boom", e.getCause().getMessage());
+        }
+        assertFalse(singleFlight.isInFlight("k"));
+    }
+
+    @Test
+    void timedWaiterFallsBackAfterTimeout() throws Exception {
+        CountDownLatch release = new CountDownLatch(1);
+        Future<String> leader = executor.submit(() -> singleFlight.execute("k", () -> {
+            await(release);
+            return "v";
+        }));
+        waitUntilInFlight("k");
+        //加载一直没有完成，等待者超时后拿到fallback的结果，不会继续等待
+        long begin = System.nanoTime();
+        String value = singleFlight.execute("k", () -> "other", 50, TimeUnit.MILLISECONDS, () -> "stale");
+        long waited = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - begin);
+        assertEquals("stale", value);
+        assertTrue(waited >= 50 && waited < 2000, "等待时间：" + waited);
+
+        release.countDown();
+        assertEquals("v", leader.get(5, TimeUnit.SECONDS));
+    }
+
+    @Test
+    void timedWaiterFallbackMayReturnNull() throws Exception {
+        CountDownLatch release = new CountDownLatch(1);
+        executor.submit(() -> singleFlight.execute("k", () -> {
+            await(release);
+            return "v";
+        }));
+        waitUntilInFlight("k");
+        //fallback没有数据时同样直接返回，由调用方决定怎么处理
+        assertNull(singleFlight.execute("k", () -> "other", 20, TimeUnit.MILLISECONDS, () -> null));
+        release.countDown();
+    }
+
+    @Test
+    void timedCallerLoadsWhenNothingInFlight() {
+        AtomicInteger fallbacks = new AtomicInteger();
+        String value = singleFlight.execute("k", () -> "v", 10, TimeUnit.MILLISECONDS, () -> {
+            fallbacks.incrementAndGet();
+            return "stale";
+        });
+        assertEquals("v", value);
+        assertEquals(0, fallbacks.get());
+    }
+
+    @Test
+    void timedWaiterGetsResultCompletedInTime() throws Exception {
+        CountDownLatch release = new CountDownLatch(1);
+        executor.submit(() -> singleFlight.execute("k", () -> {
+            await(release);
+            return "v";
+        }));
+        waitUntilInFlight("k");
+        List<Thread> waiters = new CopyOnWriteArrayList<>();
+        Future<String> waiter = executor.submit(() -> {
+            waiters.add(Thread.currentThread());
+            return singleFlight.execute("k", () -> "other", 5, TimeUnit.SECONDS, () -> "stale");
+        });
+        waitUntilWaiting(waiters, 1, Thread.State.TIMED_WAITING);
+        release.countDown();
+        assertEquals("v", waiter.get(5, TimeUnit.SECONDS));
+    }
+
+    private void waitUntilInFlight(String key) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 5000;
+        while (!singleFlight.isInFlight(key)) {
+            assertTrue(System.currentTimeMillis() < deadline, "加载没有开始");
+            Thread.sleep(1);
+        }
+    }
+
+    //调用者已经进入execute并阻塞在等待结果上
+    private static void waitUntilWaiting(List<Thread> waiters, int count) throws InterruptedException {
+        waitUntilWaiting(waiters, count, Thread.State.WAITING);
+    }
+
+    private static void waitUntilWaiting(List<Thread> waiters, int count, Thread.State state) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 5000;
+        while (waiters.size() < count || !waiters.stream().allMatch(t -> t.getState() == state)) {
+            assertTrue(System.currentTimeMillis() < deadline, "调用者没有进入等待");
+            Thread.sleep(1);
+        }
+    }
+
+    private static void await(CountDownLatch latch) {
+        try {
+            assertTrue(latch.await(5, TimeUnit.SECONDS));
+        } catch (InterruptedException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
@@ -0,0 +1,156 @@
+package com.hmdp.utils;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.ValueOperations;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.*;
+
+class SnowflakeIdWorkerTest {
+
+    private static final long WORKER = 7L;
+    //2022.04.11 00:00:00.789(本地时间)
+    private static final long START = (RedisIdWorker.BEGIN_TIMESTAMP + 100 * 86400L) * 1000 + 789;
+
+    private final StringRedisTemplate stringRedisTemplate = mock(StringRedisTemplate.class);
+    @SuppressWarnings("unchecked")
+    private final ValueOperations<String, String> valueOperations = mock(ValueOperations.class);
+    private final RedisScriptRegistry redisScriptRegistry = mock(RedisScriptRegistry.class);
+
+    SnowflakeIdWorkerTest() {
+        when(stringRedisTemplate.opsForValue()).thenReturn(valueOperations);
+        //只有WORKER这个worker id是空闲的
+        when(valueOperations.setIfAbsent(eq(RedisConstants.ID_WORKER_KEY + WORKER), anyString(), anyLong(), any(TimeUnit.class)))
+                .thenReturn(true);
+    }
+
+    @Test
+    void bitLayout() {
+        ManualClockWorker worker = worker(30);
+        long first = worker.nextId("order");
+        long second = worker.nextId("order");
+
+        //高32位与RedisIdWorker相同：从起始时间开始的秒数
+        assertEquals(START / 1000 - RedisIdWorker.BEGIN_TIMESTAMP, first >>> RedisIdWorker.COUNT_BIT);
+        //低32位：1位标志 | 10位毫秒 | 9位worker id | 12位序列号
+        assertEquals(1L << 31, first & (1L << 31));
+        assertEquals(789L, (first >> 21) & 1023);
+        assertEquals(WORKER, (first >> 12) & 511);
+        assertEquals(0L, first & 4095);
+        assertEquals(1L, second & 4095);
+        assertEquals(first + 1, second);
+    }
+
+    @Test
+    void idsIncreaseAcrossMillis() {
+        ManualClockWorker worker = worker(30);
+        long previous = worker.nextId("order");
+        //跨毫秒、跨秒时仍然递增，序列号从0开始
+        for (int i = 0; i < 1500; i++) {
+            worker.millis++;
+            long id = worker.nextId("order");
+            assertTrue(id > previous);
+            assertEquals(0L, id & 4095);
+            previous = id;
+        }
+    }
+
+    @Test
+    void sequenceOverflowWaitsForNextMillis() {
+        ManualClockWorker worker = worker(30);
+        for (int i = 0; i <= 4095; i++) {
+            assertEquals(i, worker.nextId("order") & 4095);
+        }
+        //同一毫秒的4096个序列号用完，等到下一毫秒
+        worker.ticking = true;
+        long id = worker.nextId("order");
+        assertEquals(0L, id & 4095);
+        assertEquals(790L, (id >> 21) & 1023);
+    }
+
+    @Test
+    void smallClockRollbackWaits() {
+        ManualClockWorker worker = worker(30);
+        long first = worker.nextId("order");
+        //回拨3ms，不超过max-backward-millis，等待时钟追上后继续在原来的毫秒内分配
+        worker.millis = START - 3;
+        worker.ticking = true;
+        long second = worker.nextId("order");
+        assertTrue(second > first);
+        assertEquals(789L, (second >> 21) & 1023);
+        assertEquals(1L, second & 4095);
+    }
+
+    @Test
+    void largeClockRollbackIsRejected() {
+        ManualClockWorker worker = worker(30);
+        long first = worker.nextId("order");
+        worker.millis = START - 6;
+        assertThrows(IllegalStateException.class, () -> worker.nextId("order"));
+        //时钟恢复后继续生成
+        worker.millis = START;
+        assertTrue(worker.nextId("order") > first);
+    }
+
+    @Test
+    void expiredLeaseRejectsIds() {
+        //租约时间为0，租到之后立即过期
+        ManualClockWorker worker = worker(0);
+        assertThrows(IllegalStateException.class, () -> worker.nextId("order"));
+    }
+
+    @Test
+    void failedRenewKeepsLeaseUntilDeadline() {
+        ManualClockWorker worker = worker(30);
+        when(redisScriptRegistry.execute(eq("id_worker_renew"), anyList(), anyString(), anyString()))
+                .thenThrow(new IllegalStateException("redis down"));
+        //Redis暂时不可用，租约还没过期，继续生成
+        worker.renew();
+        assertEquals(WORKER, (worker.nextId("order") >> 12) & 511);
+    }
+
+    @Test
+    void lostLeaseRejectsIdsUntilLeasedAgain() {
+        ManualClockWorker worker = worker(30);
+        when(redisScriptRegistry.execute(eq("id_worker_renew"), anyList(), anyString(), anyString()))
+                .thenReturn(0L);
+        //租约被其他节点占用，也没有其他空闲的worker id
+        when(valueOperations.setIfAbsent(anyString(), anyString(), anyLong(), any(TimeUnit.class)))
+                .thenReturn(false);
+        worker.renew();
+        assertThrows(IllegalStateException.class, () -> worker.nextId("order"));
+    }
+
+    private ManualClockWorker worker(long leaseSeconds) {
+        ManualClockWorker worker = new ManualClockWorker(stringRedisTemplate, redisScriptRegistry, leaseSeconds);
+        //没有租约时renew会租用一个worker id
+        worker.renew();
+        return worker;
+    }
+
+    /**
+     * 手动控制时钟，ticking时每读一次时钟前进1ms
+     */
+    private static class ManualClockWorker extends SnowflakeIdWorker {
+        private long millis = START;
+        private boolean ticking;
+
+        private ManualClockWorker(StringRedisTemplate stringRedisTemplate, RedisScriptRegistry redisScriptRegistry,
+                                  long leaseSeconds) {
+            super(stringRedisTemplate, redisScriptRegistry, leaseSeconds, 5);
+        }
+
+        @Override
+        long currentMillis() {
+            return ticking ? millis++ : millis;
+        }
+    }
+}